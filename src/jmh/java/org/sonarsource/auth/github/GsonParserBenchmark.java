@@ -0,0 +1,77 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the GitHub responses, from a reader as done when the body is streamed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GsonParserBenchmark {
+
+  @Param({"1", "100", "1000"})
+  public int teams;
+
+  private String teamsJson;
+  private String emailsJson;
+  private String userJson;
+
+  @Setup
+  public void setUp() {
+    teamsJson = GitHubFixtures.teams(teams);
+    emailsJson = GitHubFixtures.emails("octocat");
+    userJson = GitHubFixtures.user(1, "octocat");
+  }
+
+  @Benchmark
+  public List<GsonTeams.GsonTeam> parseTeams() throws IOException {
+    return GsonTeams.parse(new StringReader(teamsJson));
+  }
+
+  @Benchmark
+  public List<GsonEmails.GsonEmail> parseEmails() throws IOException {
+    return GsonEmails.parse(new StringReader(emailsJson));
+  }
+
+  @Benchmark
+  public GsonUser parseUser() throws IOException {
+    return GsonUser.parse(new StringReader(userJson));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.Response;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pagination links, as sent by GitHub for the teams of a user
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaginationBenchmark {
+
+  private Response firstPage;
+  private Response lastPage;
+
+  @Setup
+  public void setUp() {
+    firstPage = new Response(200, "OK", Collections.singletonMap("Link",
+      "<https://api.github.com/user/teams?per_page=100&page=2>; rel=\"next\", " +
+        "<https://api.github.com/user/teams?per_page=100&page=10>; rel=\"last\""), "[]");
+    lastPage = new Response(200, "OK", Collections.singletonMap("Link",
+      "<https://api.github.com/user/teams?per_page=100&page=1>; rel=\"first\", " +
+        "<https://api.github.com/user/teams?per_page=100&page=9>; rel=\"prev\""), "[]");
+  }
+
+  @Benchmark
+  public String readNextEndPoint() {
+    return GitHubRestClient.readNextEndPoint(firstPage);
+  }
+
+  @Benchmark
+  public String readNextEndPointOfLastPage() {
+    return GitHubRestClient.readNextEndPoint(lastPage);
+  }
+}
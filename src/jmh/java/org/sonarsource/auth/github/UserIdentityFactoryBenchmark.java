@@ -0,0 +1,72 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.SonarQubeSide;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.internal.SonarRuntimeImpl;
+import org.sonar.api.server.authentication.UserIdentity;
+import org.sonar.api.utils.Version;
+
+/**
+ * Identity built at the end of each login, with its groups when they are synchronized
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserIdentityFactoryBenchmark {
+
+  @Param({"1", "100", "1000"})
+  public int teams;
+
+  private UserIdentityFactoryImpl underTest;
+  private GsonUser user;
+  private List<GsonTeams.GsonTeam> userTeams;
+
+  @Setup
+  public void setUp() {
+    GitHubSettings settings = new GitHubSettings(new MapSettings(new PropertyDefinitions(GitHubSettings.definitions())));
+    underTest = new UserIdentityFactoryImpl(settings, SonarRuntimeImpl.forSonarQube(Version.parse("7.2"), SonarQubeSide.SERVER));
+    user = GsonUser.parse(GitHubFixtures.user(1, "octocat"));
+    userTeams = GsonTeams.parse(GitHubFixtures.teams(teams));
+  }
+
+  @Benchmark
+  public UserIdentity create() {
+    return underTest.create(user, "octocat@github.com", userTeams);
+  }
+}
@@ -29,8 +29,19 @@ public class AuthGitHubPlugin implements Plugin {
       GitHubIdentityProvider.class,
       GitHubSettings.class,
       GitHubRestClient.class,
+      GitHubGraphQLClient.class,
+      GitHubExecutor.class,
+      GitHubCircuitBreaker.class,
+      GitHubMetrics.class,
+      GitHubMetricsWs.class,
+      GitHubAppTokens.class,
+      GitHubRoster.class,
+      GitHubRosterIndexer.class,
+      GitHubWebhookFilter.class,
       UserIdentityFactoryImpl.class,
-      ScribeGitHubApi.class);
+      ScribeGitHubApi.class,
+      ScribeServiceCache.class,
+      GitHubHttpTransport.class);
     context.addExtensions(GitHubSettings.definitions());
   }
 }
@@ -0,0 +1,194 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static java.lang.String.format;
+
+/**
+ * Time left to authenticate a user, shared by all the GitHub requests of a callback. Requests are not sent once the
+ * deadline is passed. Optional data (email, teams) which is not received in time is replaced by the data received at
+ * the previous login, if any.
+ */
+final class Deadline {
+
+  private static final Logger LOGGER = Loggers.get(Deadline.class);
+
+  static final Deadline NONE = new Deadline(0L, 0L);
+
+  // deadline of the request sent by the thread, read by the HTTP transport
+  private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+  private final long timeoutInMs;
+  private final long expiresAtInNanos;
+
+  private Deadline(long timeoutInMs, long expiresAtInNanos) {
+    this.timeoutInMs = timeoutInMs;
+    this.expiresAtInNanos = expiresAtInNanos;
+  }
+
+  /**
+   * @param timeoutInMs {@link #NONE} if not positive
+   */
+  static Deadline in(long timeoutInMs) {
+    if (timeoutInMs <= 0L) {
+      return NONE;
+    }
+    return new Deadline(timeoutInMs, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs));
+  }
+
+  boolean isExpired() {
+    return this != NONE && remainingNanos() <= 0L;
+  }
+
+  /**
+   * @throws ExceededException if the deadline is passed
+   */
+  void check() {
+    if (isExpired()) {
+      throw exceeded();
+    }
+  }
+
+  /**
+   * Sends a request from the calling thread, with timeouts reduced to the time left, see {@link #current()}
+   */
+  <T> T send(GitHubExecutor.GitHubCall<T> call) throws IOException, ExecutionException, InterruptedException {
+    Deadline previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return call.call();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Deadline of the request sent by the calling thread, {@link #NONE} outside of {@link #send(GitHubExecutor.GitHubCall)}
+   */
+  static Deadline current() {
+    Deadline current = CURRENT.get();
+    return current == null ? NONE : current;
+  }
+
+  /**
+   * @param timeoutInMs 0 for no timeout
+   * @return the given timeout, reduced to the time left if it is shorter, at least 1 ms
+   */
+  int cap(int timeoutInMs) {
+    if (this == NONE) {
+      return timeoutInMs;
+    }
+    long remainingMs = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remainingNanos()));
+    return (int) (timeoutInMs <= 0 ? Math.min(remainingMs, Integer.MAX_VALUE) : Math.min(remainingMs, timeoutInMs));
+  }
+
+  /**
+   * Waits for a result required to authenticate the user.
+   *
+   * @throws ExceededException if the result is not received before the deadline
+   */
+  <T> T await(Future<T> future) throws IOException, ExecutionException, InterruptedException {
+    if (this == NONE) {
+      return GitHubExecutor.await(future);
+    }
+    try {
+      return GitHubExecutor.await(future, remainingNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw exceeded();
+    }
+  }
+
+  /**
+   * Optional result, completed with the fallback if the result is not received before the deadline. The future of the
+   * request is then cancelled, which interrupts its thread if it was submitted to {@link GitHubExecutor}, but an HTTP
+   * exchange in progress is not aborted: it ends by itself at the latest when the timeouts capped by {@link #cap(int)}
+   * expire. Nobody waits for the deadline: it is detected by the timer of the executor.
+   */
+  <T> CompletableFuture<T> orElse(CompletableFuture<T> future, Supplier<T> fallback, GitHubExecutor executor) {
+    return bound(future, executor, result -> {
+      LOGGER.debug("GitHub did not answer before the deadline, data of the previous login is used");
+      try {
+        result.complete(fallback.get());
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    });
+  }
+
+  /**
+   * Result required to authenticate the user, failed with {@link ExceededException} if it is not received before the
+   * deadline. The future of the request is then cancelled, as in
+   * {@link #orElse(CompletableFuture, Supplier, GitHubExecutor)}.
+   */
+  <T> CompletableFuture<T> orFail(CompletableFuture<T> future, GitHubExecutor executor) {
+    return bound(future, executor, result -> result.completeExceptionally(exceeded()));
+  }
+
+  private <T> CompletableFuture<T> bound(CompletableFuture<T> future, GitHubExecutor executor, Consumer<CompletableFuture<T>> onExpiry) {
+    if (this == NONE) {
+      return future;
+    }
+    CompletableFuture<T> result = new CompletableFuture<>();
+    ScheduledFuture<?> timeout = executor.schedule(() -> future.cancel(true), remainingNanos(), TimeUnit.NANOSECONDS);
+    future.whenComplete((value, failure) -> {
+      timeout.cancel(false);
+      if (failure == null) {
+        result.complete(value);
+      } else if (future.isCancelled() || failure instanceof ExceededException || failure.getCause() instanceof ExceededException) {
+        // cancelled by the timer, or the request was not sent because the deadline was already passed
+        onExpiry.accept(result);
+      } else {
+        result.completeExceptionally(failure);
+      }
+    });
+    return result;
+  }
+
+  private long remainingNanos() {
+    return expiresAtInNanos - System.nanoTime();
+  }
+
+  private ExceededException exceeded() {
+    return new ExceededException(format("GitHub did not answer within %d ms, please retry later", timeoutInMs));
+  }
+
+  static class ExceededException extends RuntimeException {
+    ExceededException(String message) {
+      super(message);
+    }
+  }
+}
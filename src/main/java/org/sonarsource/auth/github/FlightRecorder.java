@@ -0,0 +1,87 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+/**
+ * Custom events of the JDK Flight Recorder. The plugin is compiled for Java 8, so the events are only loaded when the
+ * JVM provides jdk.jfr. When it does not, or when no recording enables them, beginning an event returns a no-op.
+ *
+ * @see JfrEvents
+ */
+final class FlightRecorder {
+
+  static final RequestEvent NO_REQUEST_EVENT = (statusCode, bytesRead) -> {
+  };
+  static final PhaseEvent NO_PHASE_EVENT = success -> {
+  };
+  private static final Factory NO_EVENTS = new Factory() {
+    @Override
+    public RequestEvent beginRequest(String endpoint, String urlTemplate) {
+      return NO_REQUEST_EVENT;
+    }
+
+    @Override
+    public PhaseEvent beginPhase(String phase) {
+      return NO_PHASE_EVENT;
+    }
+  };
+  private static final Factory FACTORY = loadFactory();
+
+  private FlightRecorder() {
+    // only static methods
+  }
+
+  static RequestEvent beginRequest(String endpoint, String urlTemplate) {
+    return FACTORY.beginRequest(endpoint, urlTemplate);
+  }
+
+  static PhaseEvent beginPhase(String phase) {
+    return FACTORY.beginPhase(phase);
+  }
+
+  static boolean isAvailable() {
+    return FACTORY != NO_EVENTS;
+  }
+
+  private static Factory loadFactory() {
+    try {
+      Class.forName("jdk.jfr.Event", false, FlightRecorder.class.getClassLoader());
+      return (Factory) Class.forName(FlightRecorder.class.getPackage().getName() + ".JfrEvents").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return NO_EVENTS;
+    }
+  }
+
+  @FunctionalInterface
+  interface RequestEvent {
+    void commit(int statusCode, long bytesRead);
+  }
+
+  @FunctionalInterface
+  interface PhaseEvent {
+    void commit(boolean success);
+  }
+
+  interface Factory {
+    RequestEvent beginRequest(String endpoint, String urlTemplate);
+
+    PhaseEvent beginPhase(String phase);
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Installation tokens of the GitHub App of {@link GitHubSettings#appId()}, one per organization. Unlike the tokens of
+ * the users, a token is shared by all the logins and has the rate limit of the installation. It is renewed a few minutes
+ * before it expires, so that the JWT of the App is only signed a few times per hour.
+ */
+@ServerSide
+public class GitHubAppTokens {
+
+  private static final Logger LOGGER = Loggers.get(GitHubAppTokens.class);
+  static final long RENEWAL_MARGIN = TimeUnit.MINUTES.toMillis(5);
+  // organizations on which the App is not installed, or whose token could not be created, use the tokens of the users meanwhile
+  static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(10);
+
+  private final GitHubSettings settings;
+  private final GitHubRestClient gitHubRestClient;
+  private final ScribeServiceCache scribeServices;
+  private final System2 system2;
+  private final ConcurrentMap<String, InstallationToken> tokens = new ConcurrentHashMap<>();
+  private final SingleFlight singleFlight = new SingleFlight();
+  private volatile GitHubAppJwt jwt;
+
+  public GitHubAppTokens(GitHubSettings settings, GitHubRestClient gitHubRestClient, ScribeServiceCache scribeServices) {
+    this(settings, gitHubRestClient, scribeServices, System2.INSTANCE);
+  }
+
+  GitHubAppTokens(GitHubSettings settings, GitHubRestClient gitHubRestClient, ScribeServiceCache scribeServices, System2 system2) {
+    this.settings = settings;
+    this.gitHubRestClient = gitHubRestClient;
+    this.scribeServices = scribeServices;
+    this.system2 = system2;
+  }
+
+  boolean isEnabled() {
+    return settings.isAppConfigured();
+  }
+
+  /**
+   * @return null if the App is not configured, is not installed on the organization or if its token could not be created
+   */
+  @CheckForNull
+  OAuth2AccessToken token(String organization, Deadline deadline) throws InterruptedException {
+    if (!isEnabled()) {
+      return null;
+    }
+    // the API URL and the App are part of the key, so that tokens of previous settings are not used
+    String key = settings.configuration().apiUrl() + ' ' + settings.appId() + ' ' + organization.toLowerCase(Locale.ENGLISH);
+    InstallationToken token = tokens.get(key);
+    if (token != null && !token.needsRenewal(system2.now())) {
+      return token.accessToken;
+    }
+    try {
+      return singleFlight.call(key, deadline, () -> renew(key, organization, deadline)).accessToken;
+    } catch (IOException | ExecutionException | IllegalStateException | IllegalArgumentException e) {
+      LOGGER.warn("Fail to create the installation token of GitHub App {} for organization '{}', the tokens of the users are used: {}",
+        settings.appId(), organization, e.getMessage());
+      tokens.put(key, InstallationToken.none(system2.now() + RETRY_DELAY));
+      return null;
+    }
+  }
+
+  int size() {
+    return tokens.size();
+  }
+
+  private InstallationToken renew(String key, String organization, Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    InstallationToken current = tokens.get(key);
+    long now = system2.now();
+    if (current != null && !current.needsRenewal(now)) {
+      // renewed by the previous flight
+      return current;
+    }
+    OAuth20Service scribe = scribeServices.getForServer(settings.clientId(), settings.clientSecret());
+    String signedJwt = jwt().sign(now);
+    String installationId = current == null ? null : current.installationId;
+    if (installationId == null) {
+      installationId = gitHubRestClient.getOrganizationInstallationId(scribe, signedJwt, organization, deadline);
+    }
+    GsonInstallations.GsonInstallationToken created = installationId == null ? null
+      : gitHubRestClient.createInstallationToken(scribe, signedJwt, installationId, deadline);
+    InstallationToken renewed;
+    if (created == null || created.getToken() == null) {
+      LOGGER.warn("GitHub App {} is not installed on organization '{}', the tokens of the users are used", settings.appId(), organization);
+      renewed = InstallationToken.none(now + RETRY_DELAY);
+    } else {
+      renewed = new InstallationToken(installationId, new InstallationAccessToken(created.getToken(), installationId), renewAt(created, now));
+      LOGGER.debug("Installation token of GitHub App {} created for organization '{}'", settings.appId(), organization);
+    }
+    tokens.put(key, renewed);
+    return renewed;
+  }
+
+  private static long renewAt(GsonInstallations.GsonInstallationToken token, long now) {
+    String expiresAt = token.getExpiresAt();
+    try {
+      return expiresAt == null ? now : (Instant.parse(expiresAt).toEpochMilli() - RENEWAL_MARGIN);
+    } catch (DateTimeParseException e) {
+      throw new IllegalStateException("Invalid expiration date of installation token: " + expiresAt, e);
+    }
+  }
+
+  /**
+   * The private key is parsed again only when the settings change
+   */
+  private GitHubAppJwt jwt() {
+    String appId = settings.appId();
+    String privateKey = settings.appPrivateKey();
+    GitHubAppJwt current = jwt;
+    if (current == null || !current.isBuiltFrom(appId, privateKey)) {
+      current = GitHubAppJwt.of(appId, privateKey);
+      jwt = current;
+    }
+    return current;
+  }
+
+  /**
+   * Requests sent with this token count against the rate limit of the installation
+   */
+  static final class InstallationAccessToken extends OAuth2AccessToken {
+    private final String installationId;
+
+    InstallationAccessToken(String accessToken, String installationId) {
+      super(accessToken);
+      this.installationId = installationId;
+    }
+
+    String installationId() {
+      return installationId;
+    }
+  }
+
+  private static final class InstallationToken {
+    private final String installationId;
+    private final OAuth2AccessToken accessToken;
+    private final long renewAt;
+
+    private InstallationToken(@Nullable String installationId, @Nullable OAuth2AccessToken accessToken, long renewAt) {
+      this.installationId = installationId;
+      this.accessToken = accessToken;
+      this.renewAt = renewAt;
+    }
+
+    static InstallationToken none(long retryAt) {
+      return new InstallationToken(null, null, retryAt);
+    }
+
+    boolean needsRenewal(long now) {
+      return now >= renewAt;
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.OAuthRequest;
+import com.github.scribejava.core.model.Response;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static java.lang.String.format;
+
+/**
+ * Stops sending requests to a GitHub host when too many of the last requests failed or were too slow, so that
+ * logins fail immediately instead of holding web threads while GitHub is degraded. After
+ * {@link GitHubSettings#circuitBreakerOpenDuration()}, a single request is let through to probe the host.
+ */
+@ServerSide
+public class GitHubCircuitBreaker {
+
+  private static final Logger LOGGER = Loggers.get(GitHubCircuitBreaker.class);
+
+  static final int WINDOW_SIZE = 20;
+
+  private final GitHubSettings settings;
+  private final System2 system2;
+  private final Map<String, Circuit> circuitsByHost = new ConcurrentHashMap<>();
+
+  public GitHubCircuitBreaker(GitHubSettings settings) {
+    this(settings, System2.INSTANCE);
+  }
+
+  GitHubCircuitBreaker(GitHubSettings settings, System2 system2) {
+    this.settings = settings;
+    this.system2 = system2;
+  }
+
+  /**
+   * Responses with a 5xx code and transport errors are failures. Responses with a 4xx code, which depend on the request
+   * rather than on the availability of GitHub, are not recorded.
+   *
+   * @throws OpenException if the circuit of the host is open
+   */
+  Response execute(OAuth20Service scribe, OAuthRequest request, Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    long start = system2.now();
+    Circuit circuit = acquire(request.getUrl(), start);
+    Outcome outcome = Outcome.IGNORED;
+    try {
+      Response response = deadline.send(() -> scribe.execute(request));
+      outcome = outcome(response.getCode());
+      return response;
+    } catch (IOException | ExecutionException | RuntimeException e) {
+      outcome = outcome(e);
+      throw e;
+    } finally {
+      release(circuit, outcome, start, system2.now());
+    }
+  }
+
+  /**
+   * Transport errors and timeouts are failures. Other exceptions, such as the OAuthException raised for an invalid
+   * authorization code, are not recorded, so that anonymous callbacks cannot suspend the logins of the other users.
+   *
+   * @throws OpenException if the circuit of the host is open
+   */
+  <T> T call(String url, GitHubExecutor.GitHubCall<T> call) throws IOException, ExecutionException, InterruptedException {
+    long start = system2.now();
+    Circuit circuit = acquire(url, start);
+    Outcome outcome = Outcome.IGNORED;
+    try {
+      T result = call.call();
+      outcome = Outcome.SUCCESS;
+      return result;
+    } catch (IOException | ExecutionException | RuntimeException e) {
+      outcome = outcome(e);
+      throw e;
+    } finally {
+      release(circuit, outcome, start, system2.now());
+    }
+  }
+
+  private static Outcome outcome(int code) {
+    if (code >= 500) {
+      return Outcome.FAILURE;
+    }
+    return code >= 400 ? Outcome.IGNORED : Outcome.SUCCESS;
+  }
+
+  /**
+   * Calls interrupted because their result is no longer needed, like the membership checks cancelled once another one
+   * succeeded, are not recorded
+   */
+  private static Outcome outcome(Exception e) {
+    Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+    if (!(cause instanceof IOException) || Thread.currentThread().isInterrupted()) {
+      return Outcome.IGNORED;
+    }
+    boolean interrupted = cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException);
+    return interrupted ? Outcome.IGNORED : Outcome.FAILURE;
+  }
+
+  boolean isOpen(String url) {
+    Circuit circuit = circuitsByHost.get(host(url));
+    return circuit != null && circuit.isOpen(system2.now(), settings.circuitBreakerOpenDuration() * 1_000L);
+  }
+
+  /**
+   * State of the circuit of each host which received requests: CLOSED, OPEN or HALF_OPEN
+   */
+  SortedMap<String, String> states() {
+    SortedMap<String, String> states = new TreeMap<>();
+    long now = system2.now();
+    long openDurationInMs = settings.circuitBreakerOpenDuration() * 1_000L;
+    circuitsByHost.forEach((host, circuit) -> states.put(host, circuit.state(now, openDurationInMs).name()));
+    return states;
+  }
+
+  @CheckForNull
+  private Circuit acquire(String url, long now) {
+    if (settings.circuitBreakerFailureRateThreshold() == 0) {
+      return null;
+    }
+    String host = host(url);
+    Circuit circuit = circuitsByHost.computeIfAbsent(host, h -> new Circuit());
+    if (!circuit.tryAcquire(now, settings.circuitBreakerOpenDuration() * 1_000L)) {
+      throw new OpenException(format("GitHub is not available at %s, please retry later", host));
+    }
+    return circuit;
+  }
+
+  private void release(@Nullable Circuit circuit, Outcome outcome, long start, long end) {
+    if (circuit == null) {
+      return;
+    }
+    long slowCallDuration = settings.circuitBreakerSlowCallDuration();
+    boolean slow = slowCallDuration > 0 && end - start >= slowCallDuration;
+    if (circuit.record(outcome == Outcome.SUCCESS && slow ? Outcome.FAILURE : outcome, settings.circuitBreakerFailureRateThreshold(), end)) {
+      LOGGER.warn("Too many GitHub requests failed or took more than {} ms, requests are suspended for {} seconds", slowCallDuration,
+        settings.circuitBreakerOpenDuration());
+    }
+  }
+
+  private static String host(String url) {
+    String authority = URI.create(url).getAuthority();
+    return authority == null ? url : authority;
+  }
+
+  static class OpenException extends RuntimeException {
+    OpenException(String message) {
+      super(message);
+    }
+  }
+
+  private enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private enum Outcome {
+    SUCCESS, FAILURE, IGNORED
+  }
+
+  /**
+   * Outcomes of the last {@link #WINDOW_SIZE} requests sent to a host
+   */
+  private static class Circuit {
+    private final boolean[] failures = new boolean[WINDOW_SIZE];
+    private int next = 0;
+    private int calls = 0;
+    private int failureCount = 0;
+    private State state = State.CLOSED;
+    private long openedAt = 0L;
+    private boolean probing = false;
+
+    synchronized boolean isOpen(long now, long openDurationInMs) {
+      return (state == State.OPEN && now - openedAt < openDurationInMs) || (state == State.HALF_OPEN && probing);
+    }
+
+    synchronized State state(long now, long openDurationInMs) {
+      // an open circuit is half open once the open duration is elapsed, even if no request was sent since
+      return state == State.OPEN && now - openedAt >= openDurationInMs ? State.HALF_OPEN : state;
+    }
+
+    synchronized boolean tryAcquire(long now, long openDurationInMs) {
+      if (state == State.OPEN && now - openedAt >= openDurationInMs) {
+        state = State.HALF_OPEN;
+      }
+      switch (state) {
+        case CLOSED:
+          return true;
+        case HALF_OPEN:
+          if (probing) {
+            return false;
+          }
+          probing = true;
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    /**
+     * @return true if the circuit has just been opened
+     */
+    synchronized boolean record(Outcome outcome, int failureRateThreshold, long now) {
+      if (outcome == Outcome.IGNORED) {
+        // the next request probes the host
+        probing = false;
+        return false;
+      }
+      boolean success = outcome == Outcome.SUCCESS;
+      if (state == State.HALF_OPEN) {
+        probing = false;
+        if (success) {
+          reset();
+          return false;
+        }
+        open(now);
+        return true;
+      }
+      if (state == State.OPEN) {
+        // request sent before the circuit was opened
+        return false;
+      }
+      if (failures[next]) {
+        failureCount--;
+      }
+      failures[next] = !success;
+      if (!success) {
+        failureCount++;
+      }
+      next = (next + 1) % WINDOW_SIZE;
+      calls = Math.min(calls + 1, WINDOW_SIZE);
+      if (calls == WINDOW_SIZE && failureCount * 100 >= failureRateThreshold * WINDOW_SIZE) {
+        open(now);
+        return true;
+      }
+      return false;
+    }
+
+    private void open(long now) {
+      state = State.OPEN;
+      openedAt = now;
+    }
+
+    private void reset() {
+      state = State.CLOSED;
+      Arrays.fill(failures, false);
+      next = 0;
+      calls = 0;
+      failureCount = 0;
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable snapshot of the settings read at each login, with the values derived from them: endpoint URLs, organizations
+ * and scope. It is built by {@link GitHubSettings#configuration()} and replaced when one of the settings changes.
+ */
+final class GitHubConfiguration {
+
+  private final String rawApiUrl;
+  private final String rawWebUrl;
+  private final String rawOrganizations;
+  private final boolean syncGroups;
+  private final String loginStrategy;
+  private final String apiMode;
+
+  private final String apiUrl;
+  private final String webUrl;
+  private final String graphQLUrl;
+  private final String userUrl;
+  private final String emailsUrl;
+  private final String teamsUrl;
+  private final String organizationsUrl;
+  private final String accessTokenUrl;
+  private final String authorizationUrl;
+  private final UrlTemplate membershipUrl;
+  private final UrlTemplate organizationUrl;
+  private final UrlTemplate organizationMembersUrl;
+  private final UrlTemplate organizationTeamsUrl;
+  private final UrlTemplate teamMembersUrl;
+  private final UrlTemplate organizationInstallationUrl;
+  private final UrlTemplate installationTokenUrl;
+  private final Function<GsonUser, String> loginGenerator;
+  private final String[] organizations;
+  private final Set<String> lowerCaseOrganizations;
+  private final String scope;
+
+  GitHubConfiguration(@Nullable String rawApiUrl, @Nullable String rawWebUrl, @Nullable String rawOrganizations, String[] organizations,
+    boolean syncGroups, String loginStrategy, String apiMode) {
+    this.rawApiUrl = rawApiUrl;
+    this.rawWebUrl = rawWebUrl;
+    this.rawOrganizations = rawOrganizations;
+    this.syncGroups = syncGroups;
+    this.loginStrategy = loginStrategy;
+    this.apiMode = apiMode;
+
+    this.apiUrl = urlWithEndingSlash(rawApiUrl);
+    this.webUrl = urlWithEndingSlash(rawWebUrl);
+    this.graphQLUrl = graphQLUrl(apiUrl);
+    this.userUrl = apiUrl + "user";
+    this.emailsUrl = apiUrl + "user/emails";
+    this.teamsUrl = apiUrl + "user/teams?per_page=100";
+    this.organizationsUrl = apiUrl + "user/orgs?per_page=100";
+    this.accessTokenUrl = webUrl + "login/oauth/access_token";
+    this.authorizationUrl = webUrl + "login/oauth/authorize";
+    this.membershipUrl = UrlTemplate.compile(String.valueOf(apiUrl), "orgs/{org}/members/{username}");
+    this.organizationUrl = UrlTemplate.compile(String.valueOf(apiUrl), "orgs/{org}");
+    this.organizationMembersUrl = UrlTemplate.compile(String.valueOf(apiUrl), "orgs/{org}/members?per_page=100");
+    this.organizationTeamsUrl = UrlTemplate.compile(String.valueOf(apiUrl), "orgs/{org}/teams?per_page=100");
+    this.teamMembersUrl = UrlTemplate.compile(String.valueOf(apiUrl), "orgs/{org}/teams/{team_slug}/members?per_page=100");
+    this.organizationInstallationUrl = UrlTemplate.compile(String.valueOf(apiUrl), "orgs/{org}/installation");
+    this.installationTokenUrl = UrlTemplate.compile(String.valueOf(apiUrl), "app/installations/{installation_id}/access_tokens");
+    this.loginGenerator = UserIdentityGenerator.loginGenerator(loginStrategy);
+    this.organizations = organizations.clone();
+    Set<String> lowerCase = new LinkedHashSet<>();
+    for (String organization : organizations) {
+      lowerCase.add(organization.toLowerCase(Locale.ENGLISH));
+    }
+    this.lowerCaseOrganizations = Collections.unmodifiableSet(lowerCase);
+    this.scope = (syncGroups || organizations.length > 0) ? "user:email,read:org" : "user:email";
+  }
+
+  /**
+   * Compares the raw values, so that checking whether the settings changed does not parse them
+   */
+  boolean isBuiltFrom(@Nullable String rawApiUrl, @Nullable String rawWebUrl, @Nullable String rawOrganizations, boolean syncGroups,
+    String loginStrategy, String apiMode) {
+    return this.syncGroups == syncGroups
+      && Objects.equals(this.rawApiUrl, rawApiUrl)
+      && Objects.equals(this.rawWebUrl, rawWebUrl)
+      && Objects.equals(this.rawOrganizations, rawOrganizations)
+      && this.loginStrategy.equals(loginStrategy)
+      && this.apiMode.equals(apiMode);
+  }
+
+  @CheckForNull
+  String apiUrl() {
+    return apiUrl;
+  }
+
+  @CheckForNull
+  String webUrl() {
+    return webUrl;
+  }
+
+  /**
+   * https://api.github.com/graphql for github.com, https://github.company.com/api/graphql for GitHub Enterprise
+   */
+  @CheckForNull
+  String graphQLUrl() {
+    return graphQLUrl;
+  }
+
+  String userUrl() {
+    return userUrl;
+  }
+
+  String emailsUrl() {
+    return emailsUrl;
+  }
+
+  String teamsUrl() {
+    return teamsUrl;
+  }
+
+  String organizationsUrl() {
+    return organizationsUrl;
+  }
+
+  String accessTokenUrl() {
+    return accessTokenUrl;
+  }
+
+  String authorizationUrl() {
+    return authorizationUrl;
+  }
+
+  UrlTemplate membershipUrl() {
+    return membershipUrl;
+  }
+
+  UrlTemplate organizationUrl() {
+    return organizationUrl;
+  }
+
+  UrlTemplate organizationMembersUrl() {
+    return organizationMembersUrl;
+  }
+
+  UrlTemplate organizationTeamsUrl() {
+    return organizationTeamsUrl;
+  }
+
+  UrlTemplate teamMembersUrl() {
+    return teamMembersUrl;
+  }
+
+  UrlTemplate organizationInstallationUrl() {
+    return organizationInstallationUrl;
+  }
+
+  UrlTemplate installationTokenUrl() {
+    return installationTokenUrl;
+  }
+
+  /**
+   * In the configured order
+   */
+  String[] organizations() {
+    return organizations.clone();
+  }
+
+  boolean isOrganizationMembershipRequired() {
+    return organizations.length > 0;
+  }
+
+  /**
+   * Organization logins are case-insensitive at GitHub
+   */
+  boolean isOneOfOrganizations(String organization) {
+    return lowerCaseOrganizations.contains(organization.toLowerCase(Locale.ENGLISH));
+  }
+
+  boolean syncGroups() {
+    return syncGroups;
+  }
+
+  String loginStrategy() {
+    return loginStrategy;
+  }
+
+  String generateLogin(GsonUser user) {
+    return loginGenerator.apply(user);
+  }
+
+  String apiMode() {
+    return apiMode;
+  }
+
+  String scope() {
+    return scope;
+  }
+
+  boolean hasSameApiUrl(GitHubConfiguration other) {
+    return Objects.equals(apiUrl, other.apiUrl);
+  }
+
+  /**
+   * Organizations of this configuration which are not part of the other one
+   */
+  Set<String> organizationsNotIn(GitHubConfiguration other) {
+    Set<String> removed = new LinkedHashSet<>(lowerCaseOrganizations);
+    removed.removeAll(other.lowerCaseOrganizations);
+    return removed;
+  }
+
+  @Override
+  public String toString() {
+    return "GitHubConfiguration{apiUrl=" + apiUrl + ", webUrl=" + webUrl + ", organizations=" + Arrays.toString(organizations) +
+      ", syncGroups=" + syncGroups + ", loginStrategy=" + loginStrategy + ", apiMode=" + apiMode + "}";
+  }
+
+  @CheckForNull
+  private static String urlWithEndingSlash(@Nullable String url) {
+    if (url != null && !url.endsWith("/")) {
+      return url + "/";
+    }
+    return url;
+  }
+
+  @CheckForNull
+  private static String graphQLUrl(@Nullable String apiUrl) {
+    if (apiUrl == null) {
+      return null;
+    }
+    if (apiUrl.endsWith("/v3/")) {
+      return apiUrl.substring(0, apiUrl.length() - "v3/".length()) + "graphql";
+    }
+    return apiUrl + "graphql";
+  }
+}
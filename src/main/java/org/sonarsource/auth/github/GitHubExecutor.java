@@ -0,0 +1,271 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.CheckForNull;
+import org.sonar.api.Startable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Runs the stages of the callbacks, which are mostly waiting for GitHub.
+ *
+ * By default this is a bounded pool, sized with {@link GitHubSettings#httpThreads()}. When the pool is saturated, the
+ * request is executed by the calling thread. Once the pool is stopped, the result of the request fails with a
+ * {@link RejectedExecutionException}. When {@link GitHubSettings#httpVirtualThreads()} is enabled and the JVM
+ * supports virtual threads (Java 21+), each request is executed by a new virtual thread instead.
+ */
+@ServerSide
+public class GitHubExecutor implements Startable {
+
+  private static final Logger LOGGER = Loggers.get(GitHubExecutor.class);
+
+  static final int DEFAULT_POOL_SIZE = 16;
+  private static final int QUEUED_TASKS_PER_THREAD = 4;
+
+  private final ExecutorService pool;
+  private final ScheduledThreadPoolExecutor timer;
+
+  public GitHubExecutor(GitHubSettings settings) {
+    this(settings.httpThreads(), settings.httpVirtualThreads());
+  }
+
+  GitHubExecutor() {
+    this(DEFAULT_POOL_SIZE, false);
+  }
+
+  GitHubExecutor(int poolSize, boolean virtualThreads) {
+    ExecutorService virtualThreadPool = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+    if (virtualThreads && virtualThreadPool == null) {
+      LOGGER.warn("Virtual threads are not supported by this JVM, GitHub requests are sent by a pool of {} threads", poolSize);
+    }
+    this.pool = virtualThreadPool == null ? newBoundedPool(poolSize) : virtualThreadPool;
+    this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("github-auth-timer-"));
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  @Override
+  public void start() {
+    // threads are lazily created
+  }
+
+  @Override
+  public void stop() {
+    pool.shutdownNow();
+    timer.shutdownNow();
+  }
+
+  /**
+   * 0 when requests are sent from virtual threads
+   */
+  int poolSize() {
+    return pool instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) pool).getMaximumPoolSize() : 0;
+  }
+
+  private static ExecutorService newBoundedPool(int poolSize) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(poolSize * QUEUED_TASKS_PER_THREAD),
+      new DaemonThreadFactory("github-auth-"), new CallerRunsUnlessStopped());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * The plugin is compiled for Java 8, so the factory of Java 21 is looked up at runtime
+   *
+   * @return null if virtual threads are not supported
+   */
+  @CheckForNull
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Cancelling the result with {@code mayInterruptIfRunning} interrupts the thread which executes the call
+   */
+  <T> CompletableFuture<T> submit(GitHubCall<T> call) {
+    Task<T> task = new Task<>(call);
+    pool.execute(task);
+    return task.result;
+  }
+
+  /**
+   * Runs a short task, which must not wait for GitHub, after the given delay
+   */
+  ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+    return timer.schedule(task, delay, unit);
+  }
+
+  /**
+   * Runs a short task periodically, which must not wait for GitHub. Longer work is submitted to the pool by the task.
+   */
+  ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+    return timer.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+  }
+
+  /**
+   * Waits for the result of a request submitted with {@link #submit(GitHubCall)}, re-throwing the exception
+   * raised by the request as if it had been executed by the calling thread.
+   */
+  static <T> T await(Future<T> future) throws IOException, ExecutionException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  /**
+   * As {@link #await(Future)}, waiting at most the given time
+   */
+  static <T> T await(Future<T> future, long timeout, TimeUnit unit) throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    try {
+      return future.get(timeout, unit);
+    } catch (ExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  /**
+   * Throws the unchecked and I/O exceptions raised by the request, returns the other ones
+   */
+  private static ExecutionException unwrap(ExecutionException e) throws IOException {
+    Throwable cause = e.getCause();
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    if (cause instanceof IOException) {
+      throw (IOException) cause;
+    }
+    if (cause instanceof ExecutionException) {
+      return (ExecutionException) cause;
+    }
+    return e;
+  }
+
+  /**
+   * {@link CompletableFuture#cancel(boolean)} does not interrupt the thread which completes the future, so the call is
+   * executed by a {@link FutureTask} which completes the result
+   */
+  private static final class Task<T> extends FutureTask<T> {
+    private final CompletableFuture<T> result = new CompletableFuture<T>() {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        Task.this.cancel(mayInterruptIfRunning);
+        return cancelled;
+      }
+    };
+
+    Task(GitHubCall<T> call) {
+      super(call::call);
+    }
+
+    @Override
+    public void run() {
+      super.run();
+      if (isCancelled()) {
+        // the task may have been executed by the calling thread, which must not stay interrupted
+        Thread.interrupted();
+      }
+    }
+
+    @Override
+    protected void done() {
+      try {
+        result.complete(get());
+      } catch (ExecutionException e) {
+        // as CompletableFuture#supplyAsync, so that the dependent stages receive the same exceptions
+        result.completeExceptionally(e.getCause() instanceof CompletionException ? e.getCause() : new CompletionException(e.getCause()));
+      } catch (CancellationException e) {
+        result.cancel(false);
+      } catch (InterruptedException e) {
+        // not possible, the task is done
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * As {@link ThreadPoolExecutor.CallerRunsPolicy}, except that the result of the task fails instead of never
+   * being completed when the pool is stopped
+   */
+  private static final class CallerRunsUnlessStopped implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      if (!executor.isShutdown()) {
+        runnable.run();
+      } else if (runnable instanceof Task) {
+        ((Task<?>) runnable).result.completeExceptionally(new CompletionException(new RejectedExecutionException("GitHub executor is stopped")));
+      } else {
+        throw new RejectedExecutionException("GitHub executor is stopped");
+      }
+    }
+  }
+
+  @FunctionalInterface
+  interface GitHubCall<T> {
+    T call() throws IOException, ExecutionException, InterruptedException;
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    DaemonThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
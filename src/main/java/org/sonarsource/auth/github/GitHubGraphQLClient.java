@@ -0,0 +1,246 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.model.OAuthRequest;
+import com.github.scribejava.core.model.Response;
+import com.github.scribejava.core.model.Verb;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static java.lang.String.format;
+
+/**
+ * Fetches the identity of the authenticated user with the GitHub GraphQL API, as an alternative to the
+ * REST fan-out of {@link GitHubRestClient}.
+ *
+ * @see <a href="https://developer.github.com/v4/">GitHub GraphQL API v4</a>
+ */
+@ServerSide
+public class GitHubGraphQLClient {
+
+  private static final Logger LOGGER = Loggers.get(GitHubGraphQLClient.class);
+
+  private static final int PAGE_SIZE = 100;
+
+  private static final String VIEWER_QUERY = "query($cursor: String) { viewer { databaseId login name email " +
+    "organizations(first: " + PAGE_SIZE + ", after: $cursor) { pageInfo { hasNextPage endCursor } nodes { login } } } }";
+
+  private static final String PROFILE_QUERY = "query { viewer { databaseId login name email } }";
+
+  private static final String ORGANIZATIONS_WITH_TEAMS_QUERY = "query($login: String!, $cursor: String) { viewer { " +
+    "organizations(first: " + PAGE_SIZE + ", after: $cursor) { pageInfo { hasNextPage endCursor } nodes { login " +
+    "teams(first: " + PAGE_SIZE + ", userLogins: [$login]) { pageInfo { hasNextPage endCursor } nodes { slug } } } } } }";
+
+  private static final String TEAMS_QUERY = "query($organization: String!, $login: String!, $cursor: String) { organization(login: $organization) { " +
+    "teams(first: " + PAGE_SIZE + ", after: $cursor, userLogins: [$login]) { pageInfo { hasNextPage endCursor } nodes { slug } } } }";
+
+  private final GitHubSettings settings;
+  private final GitHubCircuitBreaker circuitBreaker;
+  private final GitHubMetrics metrics;
+
+  public GitHubGraphQLClient(GitHubSettings settings, GitHubCircuitBreaker circuitBreaker, GitHubMetrics metrics) {
+    this.settings = settings;
+    this.circuitBreaker = circuitBreaker;
+    this.metrics = metrics;
+  }
+
+  /**
+   * When teams are not requested, the profile and the organizations are loaded by a single query (one per 100 organizations).
+   * Otherwise the profile is loaded first, as the teams of the user can only be filtered by login.
+   */
+  GitHubIdentity getIdentity(OAuth20Service scribe, OAuth2AccessToken accessToken, boolean withTeams, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    if (!withTeams) {
+      return getIdentityWithoutTeams(scribe, accessToken, deadline);
+    }
+    JsonObject viewer = execute(PROFILE_QUERY, new JsonObject(), scribe, accessToken, deadline).getAsJsonObject("viewer");
+    GsonUser user = toUser(viewer);
+    List<String> organizations = new ArrayList<>();
+    List<GsonTeams.GsonTeam> teams = new ArrayList<>();
+    String cursor = null;
+    do {
+      JsonObject variables = new JsonObject();
+      variables.addProperty("login", user.getLogin());
+      variables.addProperty("cursor", cursor);
+      JsonObject connection = execute(ORGANIZATIONS_WITH_TEAMS_QUERY, variables, scribe, accessToken, deadline)
+        .getAsJsonObject("viewer").getAsJsonObject("organizations");
+      for (JsonElement node : connection.getAsJsonArray("nodes")) {
+        String organization = node.getAsJsonObject().get("login").getAsString();
+        organizations.add(organization);
+        addTeams(teams, organization, node.getAsJsonObject().getAsJsonObject("teams"), user.getLogin(), scribe, accessToken, deadline);
+      }
+      cursor = nextCursor(connection);
+    } while (cursor != null);
+    return new GitHubIdentity(user, organizations, teams);
+  }
+
+  private GitHubIdentity getIdentityWithoutTeams(OAuth20Service scribe, OAuth2AccessToken accessToken, Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    GsonUser user = null;
+    List<String> organizations = new ArrayList<>();
+    String cursor = null;
+    do {
+      JsonObject variables = new JsonObject();
+      variables.addProperty("cursor", cursor);
+      JsonObject viewer = execute(VIEWER_QUERY, variables, scribe, accessToken, deadline).getAsJsonObject("viewer");
+      if (user == null) {
+        user = toUser(viewer);
+      }
+      JsonObject connection = viewer.getAsJsonObject("organizations");
+      for (JsonElement node : connection.getAsJsonArray("nodes")) {
+        organizations.add(node.getAsJsonObject().get("login").getAsString());
+      }
+      cursor = nextCursor(connection);
+    } while (cursor != null);
+    return new GitHubIdentity(user, organizations, null);
+  }
+
+  private void addTeams(List<GsonTeams.GsonTeam> teams, String organization, JsonObject firstPage, String login, OAuth20Service scribe, OAuth2AccessToken accessToken,
+    Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    JsonObject connection = firstPage;
+    while (true) {
+      for (JsonElement node : connection.getAsJsonArray("nodes")) {
+        teams.add(new GsonTeams.GsonTeam(node.getAsJsonObject().get("slug").getAsString(), new GsonTeams.GsonOrganization(organization)));
+      }
+      String cursor = nextCursor(connection);
+      if (cursor == null) {
+        return;
+      }
+      JsonObject variables = new JsonObject();
+      variables.addProperty("organization", organization);
+      variables.addProperty("login", login);
+      variables.addProperty("cursor", cursor);
+      connection = execute(TEAMS_QUERY, variables, scribe, accessToken, deadline).getAsJsonObject("organization").getAsJsonObject("teams");
+    }
+  }
+
+  private JsonObject execute(String query, JsonObject variables, OAuth20Service scribe, OAuth2AccessToken accessToken, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    deadline.check();
+    String requestUrl = settings.configuration().graphQLUrl();
+    JsonObject payload = new JsonObject();
+    payload.addProperty("query", query);
+    payload.add("variables", variables);
+
+    OAuthRequest request = new OAuthRequest(Verb.POST, requestUrl);
+    request.addHeader("Content-Type", "application/json");
+    request.setPayload(payload.toString());
+    scribe.signRequest(accessToken, request);
+    String body;
+    GitHubMetrics.RequestTimer timer = metrics.startRequest("GraphQL", "graphql");
+    try {
+      Response response = timer.received(circuitBreaker.execute(scribe, request, deadline));
+      body = response.getBody();
+      timer.addBytes(body.getBytes(StandardCharsets.UTF_8).length);
+      if (!response.isSuccessful()) {
+        throw new IllegalStateException(format("Fail to execute request '%s'. HTTP code: %s, response: %s", requestUrl, response.getCode(), body));
+      }
+    } finally {
+      timer.stop();
+    }
+    LOGGER.trace("GraphQL response received : {}", body);
+    JsonObject json = new JsonParser().parse(body).getAsJsonObject();
+    JsonArray errors = json.getAsJsonArray("errors");
+    if (errors != null && errors.size() > 0) {
+      throw new IllegalStateException(format("Fail to execute request '%s'. GraphQL errors: %s", requestUrl, errors));
+    }
+    return json.getAsJsonObject("data");
+  }
+
+  @CheckForNull
+  private static String nextCursor(JsonObject connection) {
+    JsonObject pageInfo = connection.getAsJsonObject("pageInfo");
+    if (pageInfo.get("hasNextPage").getAsBoolean()) {
+      return pageInfo.get("endCursor").getAsString();
+    }
+    return null;
+  }
+
+  /**
+   * The REST id of the user is the GraphQL database id, so that the provider id does not depend on the API used.
+   */
+  private static GsonUser toUser(JsonObject viewer) {
+    return new GsonUser(viewer.get("databaseId").getAsString(), viewer.get("login").getAsString(), stringOrNull(viewer, "name"), stringOrNull(viewer, "email"));
+  }
+
+  /**
+   * GraphQL returns an empty string, not null, when the profile has no name or no public email.
+   */
+  @CheckForNull
+  private static String stringOrNull(JsonObject json, String member) {
+    JsonElement element = json.get(member);
+    if (element == null || element.isJsonNull() || element.getAsString().isEmpty()) {
+      return null;
+    }
+    return element.getAsString();
+  }
+
+  static class GitHubIdentity {
+    private final GsonUser user;
+    private final List<String> organizations;
+    private final List<GsonTeams.GsonTeam> teams;
+
+    GitHubIdentity(GsonUser user, List<String> organizations, @Nullable List<GsonTeams.GsonTeam> teams) {
+      this.user = user;
+      this.organizations = organizations;
+      this.teams = teams;
+    }
+
+    GsonUser getUser() {
+      return user;
+    }
+
+    List<String> getOrganizations() {
+      return organizations;
+    }
+
+    @CheckForNull
+    List<GsonTeams.GsonTeam> getTeams() {
+      return teams;
+    }
+
+    /**
+     * Organization logins are case-insensitive at GitHub
+     */
+    boolean isMemberOfAny(String[] organizations) {
+      Set<String> expected = new HashSet<>();
+      Arrays.stream(organizations).forEach(organization -> expected.add(organization.toLowerCase(Locale.ENGLISH)));
+      return this.organizations.stream().anyMatch(organization -> expected.contains(organization.toLowerCase(Locale.ENGLISH)));
+    }
+  }
+}
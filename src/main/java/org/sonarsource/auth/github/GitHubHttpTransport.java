@@ -0,0 +1,272 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.httpclient.HttpClient;
+import com.github.scribejava.core.httpclient.HttpClientConfig;
+import com.github.scribejava.core.httpclient.jdk.JDKHttpClientConfig;
+import com.github.scribejava.httpclient.okhttp.OkHttpHttpClient;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import org.sonar.api.Startable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static org.sonarsource.auth.github.GitHubSettings.HTTP_TRANSPORT_POOLED;
+
+/**
+ * HTTP transport used by scribe for all the requests sent to GitHub.
+ *
+ * By default scribe opens a {@link java.net.HttpURLConnection} per request. The pooled transport keeps a bounded number of
+ * keep-alive connections per host, so that TLS handshakes are not paid on each request, and multiplexes requests over
+ * HTTP/2 when the server supports it. Its timeouts are capped by the {@link Deadline} of the callback.
+ */
+@ServerSide
+public class GitHubHttpTransport implements Startable {
+
+  private static final Logger LOGGER = Loggers.get(GitHubHttpTransport.class);
+
+  private final GitHubSettings settings;
+  private final ConnectionStats stats = new ConnectionStats();
+  // read without lock by each request, replaced under lock when the settings change
+  private volatile PooledClient pooledClient;
+  private volatile JDKHttpClientConfig defaultClientConfig;
+
+  public GitHubHttpTransport(GitHubSettings settings) {
+    this.settings = settings;
+  }
+
+  @Override
+  public void start() {
+    // the pool is lazily created, as the settings can change at runtime
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (pooledClient != null) {
+      pooledClient.close();
+      pooledClient = null;
+    }
+  }
+
+  /**
+   * When the settings change, the previous client is not closed, as requests may still be in progress: its idle
+   * connections are closed, the others when they exceed the idle timeout after their request.
+   *
+   * @return the client to be given to scribe, or null to use the default scribe transport
+   */
+  @CheckForNull
+  HttpClient httpClient() {
+    if (!HTTP_TRANSPORT_POOLED.equals(settings.httpTransport())) {
+      if (pooledClient != null) {
+        replacePooledClient(null);
+      }
+      return null;
+    }
+    PoolConfig config = new PoolConfig(settings.httpMaxConnections(), settings.httpIdleTimeout(), settings.http2(), settings.httpConnectTimeout(),
+      settings.httpReadTimeout());
+    PooledClient client = pooledClient;
+    if (client != null && client.config.equals(config)) {
+      return client.scribeClient;
+    }
+    return replacePooledClient(config).scribeClient;
+  }
+
+  private synchronized PooledClient replacePooledClient(@Nullable PoolConfig config) {
+    PooledClient previous = pooledClient;
+    if (previous != null && previous.config.equals(config)) {
+      // replaced by another thread
+      return previous;
+    }
+    if (previous != null) {
+      previous.retire();
+    }
+    if (config == null) {
+      pooledClient = null;
+    } else {
+      LOGGER.debug("Create pool of {} HTTP connections per host to GitHub", config.maxConnections);
+      pooledClient = new PooledClient(config, stats);
+    }
+    return pooledClient;
+  }
+
+  /**
+   * Configuration of the default scribe transport. The same instance is returned as long as the timeouts do not change.
+   *
+   * @return null if the pooled transport is used
+   */
+  @CheckForNull
+  HttpClientConfig defaultHttpClientConfig() {
+    if (HTTP_TRANSPORT_POOLED.equals(settings.httpTransport())) {
+      return null;
+    }
+    int connectTimeout = settings.httpConnectTimeout();
+    int readTimeout = settings.httpReadTimeout();
+    JDKHttpClientConfig config = defaultClientConfig;
+    if (config == null || config.getConnectTimeout() != connectTimeout || config.getReadTimeout() != readTimeout) {
+      // concurrent threads may create equivalent configurations, the last one is kept
+      config = JDKHttpClientConfig.defaultConfig();
+      config.setConnectTimeout(connectTimeout);
+      config.setReadTimeout(readTimeout);
+      defaultClientConfig = config;
+    }
+    return config;
+  }
+
+  /**
+   * Ratio of the requests sent on an already opened connection, between 0 and 1.
+   */
+  public double connectionReuseRatio() {
+    return stats.reuseRatio();
+  }
+
+  public long connectionCount() {
+    PooledClient client = pooledClient;
+    return client == null ? 0L : client.okHttpClient.connectionPool().connectionCount();
+  }
+
+  private static class PooledClient {
+    private final PoolConfig config;
+    private final OkHttpClient okHttpClient;
+    private final OkHttpHttpClient scribeClient;
+
+    PooledClient(PoolConfig config, ConnectionStats stats) {
+      this.config = config;
+      Dispatcher dispatcher = new Dispatcher();
+      dispatcher.setMaxRequestsPerHost(config.maxConnections);
+      OkHttpClient.Builder builder = new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .connectionPool(new ConnectionPool(config.maxConnections, config.idleTimeoutSeconds, TimeUnit.SECONDS))
+        .connectTimeout(config.connectTimeoutInMs, TimeUnit.MILLISECONDS)
+        .readTimeout(config.readTimeoutInMs, TimeUnit.MILLISECONDS)
+        .addInterceptor(PooledClient::capTimeouts)
+        .eventListener(stats);
+      if (!config.http2) {
+        builder.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+      } else {
+        builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+      }
+      this.okHttpClient = builder.build();
+      this.scribeClient = new OkHttpHttpClient(okHttpClient);
+    }
+
+    /**
+     * Timeouts are reduced to the time left before the {@link Deadline} of the callback, so that a request which is no
+     * longer awaited does not hold its thread and its connection longer than needed
+     */
+    private static Response capTimeouts(Interceptor.Chain chain) throws IOException {
+      Deadline deadline = Deadline.current();
+      if (deadline == Deadline.NONE) {
+        return chain.proceed(chain.request());
+      }
+      return chain
+        .withConnectTimeout(deadline.cap(chain.connectTimeoutMillis()), TimeUnit.MILLISECONDS)
+        .withReadTimeout(deadline.cap(chain.readTimeoutMillis()), TimeUnit.MILLISECONDS)
+        .proceed(chain.request());
+    }
+
+    /**
+     * Idle connections are closed now, the others when they exceed the idle timeout after their request. Requests can
+     * still be sent by the threads which got the client before it was replaced.
+     */
+    void retire() {
+      okHttpClient.connectionPool().evictAll();
+    }
+
+    void close() {
+      try {
+        scribeClient.close();
+      } catch (IOException e) {
+        LOGGER.debug("Fail to close pool of HTTP connections to GitHub", e);
+      }
+    }
+  }
+
+  private static class PoolConfig {
+    private final int maxConnections;
+    private final long idleTimeoutSeconds;
+    private final boolean http2;
+    private final int connectTimeoutInMs;
+    private final int readTimeoutInMs;
+
+    PoolConfig(int maxConnections, long idleTimeoutSeconds, boolean http2, int connectTimeoutInMs, int readTimeoutInMs) {
+      this.maxConnections = maxConnections;
+      this.idleTimeoutSeconds = idleTimeoutSeconds;
+      this.http2 = http2;
+      this.connectTimeoutInMs = connectTimeoutInMs;
+      this.readTimeoutInMs = readTimeoutInMs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof PoolConfig)) {
+        return false;
+      }
+      PoolConfig that = (PoolConfig) o;
+      return maxConnections == that.maxConnections && idleTimeoutSeconds == that.idleTimeoutSeconds && http2 == that.http2
+        && connectTimeoutInMs == that.connectTimeoutInMs && readTimeoutInMs == that.readTimeoutInMs;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new long[] {maxConnections, idleTimeoutSeconds, http2 ? 1L : 0L, connectTimeoutInMs, readTimeoutInMs});
+    }
+  }
+
+  private static class ConnectionStats extends EventListener {
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      opened.increment();
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+      acquired.increment();
+    }
+
+    double reuseRatio() {
+      long acquiredCount = acquired.sum();
+      if (acquiredCount == 0L) {
+        return 0D;
+      }
+      return Math.max(0D, (acquiredCount - opened.sum()) / (double) acquiredCount);
+    }
+  }
+}
@@ -19,19 +19,34 @@
  */
 package org.sonarsource.auth.github;
 
-import com.github.scribejava.core.builder.ServiceBuilder;
 import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.model.OAuthConstants;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import org.sonar.api.server.ServerSide;
 import org.sonar.api.server.authentication.Display;
 import org.sonar.api.server.authentication.OAuth2IdentityProvider;
 import org.sonar.api.server.authentication.UnauthorizedException;
 import org.sonar.api.server.authentication.UserIdentity;
+import org.sonar.api.utils.System2;
 
 import static java.lang.String.format;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_ACCESS_TOKEN;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_AUTHENTICATE;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_CALLBACK;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_CSRF;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_EMAIL;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_GRAPHQL;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_MEMBERSHIP;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_TEAMS;
+import static org.sonarsource.auth.github.GitHubMetrics.PHASE_USER;
+import static org.sonarsource.auth.github.GitHubSettings.API_MODE_GRAPHQL;
 
 @ServerSide
 public class GitHubIdentityProvider implements OAuth2IdentityProvider {
@@ -40,14 +55,35 @@ public class GitHubIdentityProvider implements OAuth2IdentityProvider {
 
   private final GitHubSettings settings;
   private final UserIdentityFactory userIdentityFactory;
-  private final ScribeGitHubApi scribeApi;
+  private final ScribeServiceCache scribeServices;
   private final GitHubRestClient gitHubRestClient;
-
-  public GitHubIdentityProvider(GitHubSettings settings, UserIdentityFactory userIdentityFactory, ScribeGitHubApi scribeApi, GitHubRestClient gitHubRestClient) {
+  private final GitHubGraphQLClient gitHubGraphQLClient;
+  private final GitHubExecutor executor;
+  private final GitHubCircuitBreaker circuitBreaker;
+  private final GitHubMetrics metrics;
+  private final OrganizationMembershipChecker membershipChecker;
+  private final TeamsCache teamsCache;
+  private final GitHubRoster roster;
+
+  public GitHubIdentityProvider(GitHubSettings settings, UserIdentityFactory userIdentityFactory, ScribeServiceCache scribeServices, GitHubRestClient gitHubRestClient,
+    GitHubGraphQLClient gitHubGraphQLClient, GitHubExecutor executor, GitHubCircuitBreaker circuitBreaker, GitHubMetrics metrics,
+    GitHubRoster roster, GitHubAppTokens appTokens) {
     this.settings = settings;
     this.userIdentityFactory = userIdentityFactory;
-    this.scribeApi = scribeApi;
+    this.scribeServices = scribeServices;
     this.gitHubRestClient = gitHubRestClient;
+    this.gitHubGraphQLClient = gitHubGraphQLClient;
+    this.executor = executor;
+    this.circuitBreaker = circuitBreaker;
+    this.metrics = metrics;
+    this.roster = roster;
+    this.membershipChecker = new OrganizationMembershipChecker(settings, gitHubRestClient, executor, roster, appTokens);
+    this.teamsCache = new TeamsCache(settings, System2.INSTANCE);
+    settings.addConfigurationListener((previous, current) -> {
+      if (!previous.hasSameApiUrl(current)) {
+        teamsCache.clear();
+      }
+    });
   }
 
   @Override
@@ -82,22 +118,22 @@ public class GitHubIdentityProvider implements OAuth2IdentityProvider {
   @Override
   public void init(InitContext context) {
     String state = context.generateCsrfState();
-    OAuth20Service scribe = newScribeBuilder(context)
-      .scope(getScope())
-      .state(state)
-      .build(scribeApi);
-    String url = scribe.getAuthorizationUrl(/* additionalParams */ );
+    OAuth20Service scribe = getScribe(context, getScope());
+    // the state is specific to each request, so it is not part of the cached service
+    String url = scribe.getAuthorizationUrl(Collections.singletonMap(OAuthConstants.STATE, state));
     context.redirectTo(url);
   }
 
   String getScope() {
-    return (settings.syncGroups() || isOrganizationMembershipRequired()) ? "user:email,read:org" : "user:email";
+    return settings.configuration().scope();
   }
 
   @Override
   public void callback(CallbackContext context) {
     try {
       onCallback(context);
+    } catch (GitHubCircuitBreaker.OpenException | Deadline.ExceededException e) {
+      throw new UnauthorizedException(e.getMessage());
     } catch (IOException | ExecutionException e) {
       throw new IllegalStateException(e);
     } catch (InterruptedException e) {
@@ -107,60 +143,112 @@ public class GitHubIdentityProvider implements OAuth2IdentityProvider {
   }
 
   private void onCallback(CallbackContext context) throws InterruptedException, ExecutionException, IOException {
-    context.verifyCsrfState();
+    metrics.runPhase(PHASE_CSRF, context::verifyCsrfState);
+    Deadline deadline = Deadline.in(settings.loginTimeout());
+    // the same snapshot of the settings is used by all the stages of the login
+    GitHubConfiguration configuration = settings.configuration();
 
     HttpServletRequest request = context.getRequest();
-    OAuth20Service scribe = newScribeBuilder(context).build(scribeApi);
+    OAuth20Service scribe = getScribe(context, null);
     String code = request.getParameter("code");
-    OAuth2AccessToken accessToken = scribe.getAccessToken(code);
-
-    GsonUser user = gitHubRestClient.getUser(scribe, accessToken);
-    check(scribe, accessToken, user);
+    GitHubMetrics.PhaseTimer callback = metrics.startPhase(PHASE_CALLBACK);
+    boolean success = false;
+    try {
+      // the requests are sent by the pool of GitHubExecutor, the calling thread only waits for the resulting identity.
+      // Each stage is bounded by the deadline, so that optional data can be replaced before the identity is failed.
+      CompletableFuture<OAuth2AccessToken> accessToken = deadline.orFail(metrics.timePhase(PHASE_ACCESS_TOKEN,
+        () -> executor.submit(() -> circuitBreaker.call(scribe.getApi().getAccessTokenEndpoint(), () -> scribe.getAccessToken(code)))), executor);
+      CompletableFuture<UserIdentity> userIdentity = accessToken.thenCompose(token -> API_MODE_GRAPHQL.equals(configuration.apiMode())
+        ? identifyWithGraphQL(configuration, scribe, token, deadline)
+        : identify(configuration, scribe, token, deadline));
+      UserIdentity identity = GitHubExecutor.await(userIdentity);
+      metrics.runPhase(PHASE_AUTHENTICATE, () -> context.authenticate(identity));
+      success = true;
+    } finally {
+      callback.stop(success);
+    }
+    context.redirectToRequestedPage();
+  }
 
-    final String email;
-    if (user.getEmail() == null) {
+  private CompletableFuture<UserIdentity> identify(GitHubConfiguration configuration, OAuth20Service scribe, OAuth2AccessToken accessToken, Deadline deadline) {
+    CompletableFuture<GsonUser> gitHubUser = deadline.orFail(metrics.timePhase(PHASE_USER, () -> gitHubRestClient.getUserAsync(scribe, accessToken, deadline)), executor);
+    return gitHubUser.thenCompose(user -> {
+      String login = user.getLogin();
+      // once the login is known, emails, teams and membership do not depend on each other
       // if the user has not specified a public email address in their profile
-      email = gitHubRestClient.getEmail(scribe, accessToken);
-    } else {
-      email = user.getEmail();
+      CompletableFuture<String> email = user.getEmail() == null
+        ? deadline.orElse(metrics.timePhase(PHASE_EMAIL, () -> gitHubRestClient.getEmailAsync(scribe, accessToken, login, deadline)),
+          () -> gitHubRestClient.getCachedEmail(login), executor)
+        : CompletableFuture.completedFuture(user.getEmail());
+      CompletableFuture<List<GsonTeams.GsonTeam>> teams = teams(configuration, scribe, accessToken, login, deadline);
+      return deadline.orFail(metrics.timePhase(PHASE_MEMBERSHIP, () -> check(configuration, scribe, accessToken, user, deadline)), executor)
+        .thenCompose(authorized -> email.thenCombine(teams, (userEmail, userTeams) -> userIdentityFactory.create(user, userEmail, userTeams)));
+    });
+  }
+
+  /**
+   * Teams found in the roster are not requested
+   */
+  private CompletableFuture<List<GsonTeams.GsonTeam>> teams(GitHubConfiguration configuration, OAuth20Service scribe, OAuth2AccessToken accessToken,
+    String login, Deadline deadline) {
+    if (!configuration.syncGroups()) {
+      return CompletableFuture.completedFuture(null);
     }
+    List<GsonTeams.GsonTeam> indexedTeams = roster.teams(configuration, login);
+    if (indexedTeams != null) {
+      return CompletableFuture.completedFuture(indexedTeams);
+    }
+    return deadline.orElse(metrics.timePhase(PHASE_TEAMS, () -> teamsCache.get(login, deadline, d -> gitHubRestClient.getTeamsAsync(scribe, accessToken, login, d))),
+      () -> gitHubRestClient.getCachedTeams(login), executor);
+  }
 
-    UserIdentity userIdentity = userIdentityFactory.create(user, email,
-      settings.syncGroups() ? gitHubRestClient.getTeams(scribe, accessToken) : null);
-    context.authenticate(userIdentity);
-    context.redirectToRequestedPage();
+  private CompletableFuture<UserIdentity> identifyWithGraphQL(GitHubConfiguration configuration, OAuth20Service scribe, OAuth2AccessToken accessToken, Deadline deadline) {
+    CompletableFuture<GitHubGraphQLClient.GitHubIdentity> gitHubIdentity = deadline.orFail(metrics.timePhase(PHASE_GRAPHQL,
+      () -> executor.submit(() -> gitHubGraphQLClient.getIdentity(scribe, accessToken, configuration.syncGroups(), deadline))), executor);
+    return gitHubIdentity.thenCompose(identity -> {
+      GsonUser user = identity.getUser();
+      if (configuration.isOrganizationMembershipRequired() && !identity.isMemberOfAny(configuration.organizations())) {
+        throw unauthorized(configuration, user);
+      }
+      // the GraphQL API only exposes the public email address
+      CompletableFuture<String> email = user.getEmail() == null
+        ? deadline.orElse(metrics.timePhase(PHASE_EMAIL, () -> gitHubRestClient.getEmailAsync(scribe, accessToken, user.getLogin(), deadline)),
+          () -> gitHubRestClient.getCachedEmail(user.getLogin()), executor)
+        : CompletableFuture.completedFuture(user.getEmail());
+      return email.thenApply(userEmail -> userIdentityFactory.create(user, userEmail, identity.getTeams()));
+    });
   }
 
   boolean isOrganizationMembershipRequired() {
-    return settings.organizations().length > 0;
+    return settings.configuration().isOrganizationMembershipRequired();
   }
 
-  private void check(OAuth20Service scribe, OAuth2AccessToken accessToken, GsonUser user) throws InterruptedException, ExecutionException, IOException {
-    if (isUnauthorized(scribe, accessToken, user.getLogin())) {
-      throw new UnauthorizedException(format("'%s' must be a member of at least one organization: '%s'", user.getLogin(), String.join("', '", settings.organizations())));
-    }
+  TeamsCache teamsCache() {
+    return teamsCache;
   }
 
-  private boolean isUnauthorized(OAuth20Service scribe, OAuth2AccessToken accessToken, String login) throws IOException, ExecutionException, InterruptedException {
-    return isOrganizationMembershipRequired() && !isOrganizationsMember(scribe, accessToken, login);
+  private CompletableFuture<Void> check(GitHubConfiguration configuration, OAuth20Service scribe, OAuth2AccessToken accessToken, GsonUser user,
+    Deadline deadline) {
+    if (!configuration.isOrganizationMembershipRequired()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return membershipChecker.isMemberOfAny(configuration, scribe, accessToken, user.getLogin(), deadline).thenAccept(member -> {
+      if (!member) {
+        throw unauthorized(configuration, user);
+      }
+    });
   }
 
-  private boolean isOrganizationsMember(OAuth20Service scribe, OAuth2AccessToken accessToken, String login) throws IOException, ExecutionException, InterruptedException {
-    for (String organization : settings.organizations()) {
-      if (gitHubRestClient.isOrganizationMember(scribe, accessToken, organization, login)) {
-        return true;
-      }
-    }
-    return false;
+  private static UnauthorizedException unauthorized(GitHubConfiguration configuration, GsonUser user) {
+    return new UnauthorizedException(format("'%s' must be a member of at least one organization: '%s'", user.getLogin(),
+      String.join("', '", configuration.organizations())));
   }
 
-  private ServiceBuilder newScribeBuilder(OAuth2IdentityProvider.OAuth2Context context) {
+  private OAuth20Service getScribe(OAuth2IdentityProvider.OAuth2Context context, @Nullable String scope) {
     if (!isEnabled()) {
       throw new IllegalStateException("GitHub authentication is disabled");
     }
-    return new ServiceBuilder(settings.clientId())
-      .apiSecret(settings.clientSecret())
-      .callback(context.getCallbackUrl());
+    return scribeServices.get(settings.clientId(), settings.clientSecret(), context.getCallbackUrl(), scope);
   }
 
 }
@@ -0,0 +1,212 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.Response;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.sonar.api.server.ServerSide;
+
+/**
+ * Latencies of the GitHub requests, by endpoint, and of the phases of the callbacks, with counters of the response
+ * codes, of the pages and of the bytes received. Recording does not lock, so that it can be done on each request.
+ * Each request and phase is also a JDK Flight Recorder event, see {@link FlightRecorder}.
+ *
+ * @see GitHubMetricsWs
+ */
+@ServerSide
+public class GitHubMetrics {
+
+  static final String PHASE_CSRF = "csrf";
+  static final String PHASE_ACCESS_TOKEN = "accessToken";
+  static final String PHASE_USER = "user";
+  static final String PHASE_MEMBERSHIP = "membership";
+  static final String PHASE_EMAIL = "email";
+  static final String PHASE_TEAMS = "teams";
+  static final String PHASE_GRAPHQL = "graphql";
+  static final String PHASE_AUTHENTICATE = "authenticate";
+  static final String PHASE_CALLBACK = "callback";
+
+  /**
+   * Status code of the requests which received no response: transport errors, timeouts and requests rejected by the
+   * circuit breaker
+   */
+  static final int NO_RESPONSE = 0;
+
+  private final ConcurrentMap<String, LatencyHistogram> requests = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LatencyHistogram> phases = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+  private final LongAdder pages = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+
+  void recordRequest(String endpoint, int statusCode, long durationInNanos) {
+    requests.computeIfAbsent(endpoint, e -> new LatencyHistogram()).record(TimeUnit.NANOSECONDS.toMicros(durationInNanos));
+    statusCodes.computeIfAbsent(statusCode, c -> new LongAdder()).increment();
+  }
+
+  void recordPage() {
+    pages.increment();
+  }
+
+  void recordPhase(String phase, long durationInNanos) {
+    phases.computeIfAbsent(phase, p -> new LatencyHistogram()).record(TimeUnit.NANOSECONDS.toMicros(durationInNanos));
+  }
+
+  /**
+   * Records the time elapsed until the stage is completed, successfully or not. The returned future is completed
+   * once the duration is recorded.
+   */
+  <T> CompletableFuture<T> timePhase(String phase, Supplier<CompletableFuture<T>> stage) {
+    PhaseTimer timer = startPhase(phase);
+    return stage.get().whenComplete((result, failure) -> timer.stop(failure == null));
+  }
+
+  /**
+   * Same as {@link #timePhase(String, Supplier)} for a phase run by the calling thread
+   */
+  void runPhase(String phase, Runnable step) {
+    PhaseTimer timer = startPhase(phase);
+    boolean success = false;
+    try {
+      step.run();
+      success = true;
+    } finally {
+      timer.stop(success);
+    }
+  }
+
+  PhaseTimer startPhase(String phase) {
+    return new PhaseTimer(phase, FlightRecorder.beginPhase(phase));
+  }
+
+  /**
+   * The timer of a request is used by a single thread. It must be stopped even if no response is received.
+   */
+  RequestTimer startRequest(String endpoint, String urlTemplate) {
+    return new RequestTimer(endpoint, FlightRecorder.beginRequest(endpoint, urlTemplate));
+  }
+
+  void recordBytes(long count) {
+    bytesRead.add(count);
+  }
+
+  SortedMap<String, LatencyHistogram> requests() {
+    return new TreeMap<>(requests);
+  }
+
+  SortedMap<String, LatencyHistogram> phases() {
+    return new TreeMap<>(phases);
+  }
+
+  SortedMap<Integer, Long> statusCodes() {
+    SortedMap<Integer, Long> counts = new TreeMap<>();
+    for (Map.Entry<Integer, LongAdder> entry : statusCodes.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().sum());
+    }
+    return counts;
+  }
+
+  long pages() {
+    return pages.sum();
+  }
+
+  long bytesRead() {
+    return bytesRead.sum();
+  }
+
+  final class PhaseTimer {
+    private final String phase;
+    private final FlightRecorder.PhaseEvent event;
+    private final long start = System.nanoTime();
+
+    private PhaseTimer(String phase, FlightRecorder.PhaseEvent event) {
+      this.phase = phase;
+      this.event = event;
+    }
+
+    void stop(boolean success) {
+      recordPhase(phase, System.nanoTime() - start);
+      event.commit(success);
+    }
+  }
+
+  final class RequestTimer {
+    private final String endpoint;
+    private final FlightRecorder.RequestEvent event;
+    private final long start = System.nanoTime();
+    private int statusCode = NO_RESPONSE;
+    private long bytes;
+
+    private RequestTimer(String endpoint, FlightRecorder.RequestEvent event) {
+      this.endpoint = endpoint;
+      this.event = event;
+    }
+
+    /**
+     * Counts the bytes read from the given response body
+     */
+    InputStream countBytes(InputStream body) {
+      return new FilterInputStream(body) {
+        @Override
+        public int read() throws IOException {
+          int b = super.read();
+          if (b >= 0) {
+            bytes++;
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+          int count = super.read(buffer, offset, length);
+          if (count > 0) {
+            bytes += count;
+          }
+          return count;
+        }
+      };
+    }
+
+    void addBytes(long count) {
+      bytes += count;
+    }
+
+    Response received(Response response) {
+      statusCode = response.getCode();
+      return response;
+    }
+
+    void stop() {
+      recordRequest(endpoint, statusCode, System.nanoTime() - start);
+      recordBytes(bytes);
+      event.commit(statusCode, bytes);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.OptionalLong;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.text.JsonWriter;
+
+/**
+ * Exposes {@link GitHubMetrics} at api/authgithub/metrics, with the state of the rate limits, of the HTTP connections
+ * and of the circuit breaker. Durations are in microseconds.
+ *
+ * As the metrics disclose the GitHub hosts and the remaining rate limits, the requests must send the token of
+ * {@link GitHubSettings#metricsToken()} in the header {@link #TOKEN_HEADER}, so that they can be scraped without
+ * the credentials of an administrator.
+ */
+public class GitHubMetricsWs implements WebService {
+
+  static final String CONTROLLER = "api/authgithub";
+  static final String ACTION_METRICS = "metrics";
+  static final String TOKEN_HEADER = "X-Metrics-Token";
+
+  private static final double[] PERCENTILES = {50D, 90D, 99D};
+
+  private final GitHubSettings settings;
+  private final GitHubMetrics metrics;
+  private final GitHubRestClient gitHubRestClient;
+  private final GitHubHttpTransport httpTransport;
+  private final GitHubCircuitBreaker circuitBreaker;
+
+  public GitHubMetricsWs(GitHubSettings settings, GitHubMetrics metrics, GitHubRestClient gitHubRestClient, GitHubHttpTransport httpTransport,
+    GitHubCircuitBreaker circuitBreaker) {
+    this.settings = settings;
+    this.metrics = metrics;
+    this.gitHubRestClient = gitHubRestClient;
+    this.httpTransport = httpTransport;
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  @Override
+  public void define(Context context) {
+    NewController controller = context.createController(CONTROLLER)
+      .setDescription("GitHub authentication");
+    controller.createAction(ACTION_METRICS)
+      .setDescription("Latencies of the GitHub requests and of the login phases, in microseconds, and counters of the GitHub responses. " +
+        "Requires the metrics token of the GitHub authentication settings in the header " + TOKEN_HEADER + ".")
+      .setSince("1.6")
+      .setInternal(true)
+      .setHandler(this::handle);
+    controller.done();
+  }
+
+  private void handle(Request request, Response response) {
+    String token = settings.metricsToken();
+    if (token.isEmpty()) {
+      response.stream().setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    if (!isTokenValid(token, request.header(TOKEN_HEADER).orElse(null))) {
+      response.stream().setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+      return;
+    }
+    try (JsonWriter json = response.newJsonWriter()) {
+      json.beginObject();
+      writeHistograms(json, "requests", metrics.requests());
+      writeHistograms(json, "phases", metrics.phases());
+      json.name("statusCodes").beginObject();
+      metrics.statusCodes().forEach((code, count) -> json.prop(String.valueOf(code), count));
+      json.endObject();
+      json.prop("pages", metrics.pages());
+      json.prop("bytesRead", metrics.bytesRead());
+      OptionalLong lowestRemaining = gitHubRestClient.rateLimits().lowestRemaining();
+      if (lowestRemaining.isPresent()) {
+        json.prop("rateLimitLowestRemaining", lowestRemaining.getAsLong());
+      }
+      json.name("connections").beginObject()
+        .prop("count", httpTransport.connectionCount())
+        .prop("reuseRatio", httpTransport.connectionReuseRatio())
+        .endObject();
+      json.name("circuits").beginObject();
+      circuitBreaker.states().forEach(json::prop);
+      json.endObject();
+      json.endObject();
+    }
+  }
+
+  /**
+   * Compared in constant time, so that the token cannot be guessed from the response times
+   */
+  static boolean isTokenValid(String token, @Nullable String candidate) {
+    return candidate != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), candidate.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeHistograms(JsonWriter json, String name, Map<String, LatencyHistogram> histograms) {
+    json.name(name).beginObject();
+    histograms.forEach((key, histogram) -> {
+      json.name(key).beginObject()
+        .prop("count", histogram.count())
+        .prop("sum", histogram.sum())
+        .prop("max", histogram.max());
+      for (double percentile : PERCENTILES) {
+        json.prop("p" + (int) percentile, histogram.percentile(percentile));
+      }
+      json.endObject();
+    });
+    json.endObject();
+  }
+}
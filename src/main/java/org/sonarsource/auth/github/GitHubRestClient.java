@@ -25,17 +25,39 @@ import com.github.scribejava.core.model.Response;
 import com.github.scribejava.core.model.Verb;
 import com.github.scribejava.core.oauth.OAuth20Service;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
 import static java.lang.String.format;
+import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
 
 @ServerSide
 public class GitHubRestClient {
@@ -43,23 +65,127 @@ public class GitHubRestClient {
   private static final Logger LOGGER = Loggers.get(GitHubRestClient.class);
 
   private static final Pattern NEXT_LINK_PATTERN = Pattern.compile(".*<(.*)>; rel=\"next\"");
+  private static final Pattern LAST_LINK_PATTERN = Pattern.compile("<([^>]*)>; rel=\"last\"");
+  private static final Pattern PAGE_PARAMETER_PATTERN = Pattern.compile("([?&]page=)(\\d+)");
+
+  static final int CONDITIONAL_CACHE_SIZE = 10_000;
+  static final int ROSTER_CACHE_SIZE = 5_000;
+  static final int MAX_PAGES_IN_FLIGHT = 4;
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  // not a valid GitHub login, so that the pages of the roster are never mixed up with those of a user
+  private static final String ROSTER_OWNER = "@roster";
 
   private final GitHubSettings settings;
+  private final GitHubExecutor executor;
+  private final GitHubCircuitBreaker circuitBreaker;
+  private final GitHubMetrics metrics;
+  // pages of the users, keyed by login, and pages of the roster, so that logins do not evict the pages of the roster
+  private final LruCache<String, Page<?>> conditionalCache = new LruCache<>(CONDITIONAL_CACHE_SIZE);
+  private final LruCache<String, Page<?>> rosterCache = new LruCache<>(ROSTER_CACHE_SIZE);
+  private final MembershipCache membershipCache;
+  private final RateLimits rateLimits;
+  private final SingleFlight singleFlight = new SingleFlight();
+
+  public GitHubRestClient(GitHubSettings settings, GitHubExecutor executor, GitHubCircuitBreaker circuitBreaker, GitHubMetrics metrics) {
+    this(settings, executor, circuitBreaker, metrics, System2.INSTANCE);
+  }
 
-  public GitHubRestClient(GitHubSettings settings) {
+  GitHubRestClient(GitHubSettings settings, GitHubExecutor executor, GitHubCircuitBreaker circuitBreaker, GitHubMetrics metrics, System2 system2) {
     this.settings = settings;
+    this.executor = executor;
+    this.circuitBreaker = circuitBreaker;
+    this.metrics = metrics;
+    this.membershipCache = new MembershipCache(settings, system2);
+    this.rateLimits = new RateLimits(system2);
+    settings.addConfigurationListener(this::onConfigurationChange);
+  }
+
+  /**
+   * Responses of another GitHub instance must not be used, and memberships of organizations which are no longer
+   * configured will not be checked again
+   */
+  private void onConfigurationChange(GitHubConfiguration previous, GitHubConfiguration current) {
+    if (!previous.hasSameApiUrl(current)) {
+      conditionalCache.clear();
+      rosterCache.clear();
+      membershipCache.clear();
+      return;
+    }
+    previous.organizationsNotIn(current).forEach(membershipCache::evictOrganization);
+  }
+
+  /**
+   * The profile is not conditional: the login is not known yet, and GitHub issues a new access token at each login, so
+   * a response keyed by the access token would never be used again. Concurrent requests with the same access token
+   * share the same request.
+   */
+  GsonUser getUser(OAuth20Service scribe, OAuth2AccessToken accessToken, Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    String requestUrl = settings.configuration().userUrl();
+    return singleFlight.call(tokenOwner(accessToken) + ' ' + requestUrl, deadline, () -> requestUser(requestUrl, scribe, accessToken, deadline));
+  }
+
+  private GsonUser requestUser(String requestUrl, OAuth20Service scribe, OAuth2AccessToken accessToken, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    deadline.check();
+    OAuthRequest request = new OAuthRequest(Verb.GET, requestUrl);
+    scribe.signRequest(accessToken, request);
+    GitHubMetrics.RequestTimer timer = metrics.startRequest("User", urlTemplate(requestUrl));
+    try {
+      Response response = timer.received(circuitBreaker.execute(scribe, request, deadline));
+      if (!response.isSuccessful()) {
+        // the login is not known without the profile, the rate limit is recorded for the access token
+        rateLimits.update(host(requestUrl), rateLimitOwner(accessToken, tokenOwner(accessToken)), response);
+        throw unexpectedResponseCode(requestUrl, response);
+      }
+      GsonUser user = parse(response, "User", GsonUser::parse, timer);
+      // the owner of the rate limit is only known once the profile is received
+      rateLimits.update(host(requestUrl), rateLimitOwner(accessToken, user.getLogin()), response);
+      metrics.recordPage();
+      return user;
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /**
+   * As {@link #getUser(OAuth20Service, OAuth2AccessToken, Deadline)}, requested by the pool of {@link GitHubExecutor}
+   */
+  CompletableFuture<GsonUser> getUserAsync(OAuth20Service scribe, OAuth2AccessToken accessToken, Deadline deadline) {
+    return executor.submit(() -> getUser(scribe, accessToken, deadline));
+  }
+
+  /**
+   * When the rate limit is low, the email received at the previous login is returned. It is still requested if unknown,
+   * as a missing email would be removed from the SonarQube account.
+   */
+  @CheckForNull
+  String getEmail(OAuth20Service scribe, OAuth2AccessToken accessToken, String login, Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    String requestUrl = settings.configuration().emailsUrl();
+    Page<List<GsonEmails.GsonEmail>> page = isRateLimitLow(requestUrl, accessToken, login) ? cachedPage(requestUrl, login) : null;
+    if (page == null) {
+      page = getPage(requestUrl, login, "Emails", json -> unmodifiableList(GsonEmails.parse(json)), scribe, accessToken, deadline);
+    }
+    return primaryEmail(page.content);
+  }
+
+  /**
+   * As {@link #getEmail(OAuth20Service, OAuth2AccessToken, String, Deadline)}, requested by the pool of {@link GitHubExecutor}
+   */
+  CompletableFuture<String> getEmailAsync(OAuth20Service scribe, OAuth2AccessToken accessToken, String login, Deadline deadline) {
+    return executor.submit(() -> getEmail(scribe, accessToken, login, deadline));
   }
 
-  GsonUser getUser(OAuth20Service scribe, OAuth2AccessToken accessToken) throws IOException, ExecutionException, InterruptedException {
-    String responseBody = executeRequest(settings.apiURL() + "user", scribe, accessToken).getBody();
-    LOGGER.trace("User response received : {}", responseBody);
-    return GsonUser.parse(responseBody);
+  /**
+   * Email received at the previous login, if any
+   */
+  @CheckForNull
+  String getCachedEmail(String login) {
+    Page<List<GsonEmails.GsonEmail>> page = cachedPage(settings.configuration().emailsUrl(), login);
+    return page == null ? null : primaryEmail(page.content);
   }
 
-  String getEmail(OAuth20Service scribe, OAuth2AccessToken accessToken) throws IOException, ExecutionException, InterruptedException {
-    String responseBody = executeRequest(settings.apiURL() + "user/emails", scribe, accessToken).getBody();
-    LOGGER.trace("Emails response received : {}", responseBody);
-    List<GsonEmails.GsonEmail> emails = GsonEmails.parse(responseBody);
+  @CheckForNull
+  private static String primaryEmail(List<GsonEmails.GsonEmail> emails) {
     return emails.stream()
       .filter(email -> email.isPrimary() && email.isVerified())
       .findFirst()
@@ -67,12 +193,129 @@ public class GitHubRestClient {
       .orElse(null);
   }
 
-  List<GsonTeams.GsonTeam> getTeams(OAuth20Service scribe, OAuth2AccessToken accessToken) throws IOException, ExecutionException, InterruptedException {
-    Response response = executeRequest(settings.apiURL() + "user/teams?per_page=100", scribe, accessToken);
-    LOGGER.trace("Teams response received : {}", response.getBody());
-    List<GsonTeams.GsonTeam> teams = GsonTeams.parse(response.getBody());
-    getNextTeams(teams, response, scribe, accessToken);
-    return teams;
+  /**
+   * When the rate limit is low, the teams received at the previous login are returned without requesting GitHub.
+   *
+   * @return null if the rate limit is low and the teams are not known, in which case groups are not synchronized
+   */
+  @CheckForNull
+  List<GsonTeams.GsonTeam> getTeams(OAuth20Service scribe, OAuth2AccessToken accessToken, String login, Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    String requestUrl = settings.configuration().teamsUrl();
+    if (isRateLimitLow(requestUrl, accessToken, login)) {
+      LOGGER.debug("GitHub rate limit is low, teams of {} are not requested", login);
+      return getCachedPages(requestUrl, login);
+    }
+    return getAllPages(requestUrl, login, "Teams", GsonTeams::parse, scribe, accessToken, deadline);
+  }
+
+  /**
+   * As {@link #getTeams(OAuth20Service, OAuth2AccessToken, String, Deadline)}, requested by the pool of {@link GitHubExecutor}
+   */
+  CompletableFuture<List<GsonTeams.GsonTeam>> getTeamsAsync(OAuth20Service scribe, OAuth2AccessToken accessToken, String login, Deadline deadline) {
+    return executor.submit(() -> getTeams(scribe, accessToken, login, deadline));
+  }
+
+  /**
+   * Teams received at the previous login, if any
+   */
+  @CheckForNull
+  List<GsonTeams.GsonTeam> getCachedTeams(String login) {
+    return getCachedPages(settings.configuration().teamsUrl(), login);
+  }
+
+  /**
+   * Organizations of the authenticated user, including the private memberships when the token has the read:org scope.
+   */
+  List<GsonTeams.GsonOrganization> getOrganizations(OAuth20Service scribe, OAuth2AccessToken accessToken, String login, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    return getAllPages(settings.configuration().organizationsUrl(), login, "Organizations", GsonOrganizations::parse, scribe, accessToken, deadline);
+  }
+
+  /**
+   * The organization as named by GitHub, whatever the case used in the settings
+   */
+  GsonTeams.GsonOrganization getOrganization(OAuth20Service scribe, OAuth2AccessToken accessToken, String organization, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    return getPage(settings.configuration().organizationUrl().expand(organization), ROSTER_OWNER, "Organization",
+      json -> JsonStreams.read(json, GsonTeams.ORGANIZATION_READER), scribe, accessToken, deadline).content;
+  }
+
+  /**
+   * Requests of the roster are sent with a service token. They are conditional, so that an unchanged page is neither
+   * parsed again nor counted against the rate limit.
+   */
+  List<GsonUser> getOrganizationMembers(OAuth20Service scribe, OAuth2AccessToken accessToken, String organization, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    return getAllPages(settings.configuration().organizationMembersUrl().expand(organization), ROSTER_OWNER, "OrganizationMembers", GsonUser::parseList,
+      scribe, accessToken, deadline);
+  }
+
+  /**
+   * Teams of the organization, without their organization which is not part of the response
+   */
+  List<GsonTeams.GsonTeam> getOrganizationTeams(OAuth20Service scribe, OAuth2AccessToken accessToken, String organization, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    return getAllPages(settings.configuration().organizationTeamsUrl().expand(organization), ROSTER_OWNER, "OrganizationTeams", GsonTeams::parse,
+      scribe, accessToken, deadline);
+  }
+
+  List<GsonUser> getTeamMembers(OAuth20Service scribe, OAuth2AccessToken accessToken, String organization, String teamSlug, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    return getAllPages(settings.configuration().teamMembersUrl().expand(organization, teamSlug), ROSTER_OWNER, "TeamMembers", GsonUser::parseList,
+      scribe, accessToken, deadline);
+  }
+
+  /**
+   * Installation of the GitHub App authenticated by the JWT on the organization, null if the App is not installed on it
+   */
+  @CheckForNull
+  String getOrganizationInstallationId(OAuth20Service scribe, String jwt, String organization, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    UrlTemplate installationUrl = settings.configuration().organizationInstallationUrl();
+    GsonInstallations.GsonInstallation installation = requestAsApp(Verb.GET, installationUrl.expand(organization), installationUrl.template(),
+      "Installation", GsonInstallations::parseInstallation, scribe, jwt, deadline);
+    return installation == null ? null : installation.getId();
+  }
+
+  /**
+   * Installation tokens are valid one hour. They are not cached here, as they must be renewed before they expire.
+   *
+   * @return null if the App is no longer installed
+   */
+  @CheckForNull
+  GsonInstallations.GsonInstallationToken createInstallationToken(OAuth20Service scribe, String jwt, String installationId, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    UrlTemplate tokenUrl = settings.configuration().installationTokenUrl();
+    return requestAsApp(Verb.POST, tokenUrl.expand(installationId), tokenUrl.template(), "InstallationToken", GsonInstallations::parseToken,
+      scribe, jwt, deadline);
+  }
+
+  /**
+   * Requests authenticated by the JWT of the App are neither conditional nor shared: they are only sent when an
+   * installation token is renewed.
+   */
+  @CheckForNull
+  private <T> T requestAsApp(Verb verb, String requestUrl, String urlTemplate, String name, Parser<T> parser, OAuth20Service scribe, String jwt,
+    Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    deadline.check();
+    OAuthRequest request = new OAuthRequest(verb, requestUrl);
+    request.addHeader("Authorization", "Bearer " + jwt);
+    request.addHeader("Accept", "application/vnd.github+json");
+    GitHubMetrics.RequestTimer timer = metrics.startRequest(name, urlTemplate);
+    try {
+      Response response = timer.received(circuitBreaker.execute(scribe, request, deadline));
+      if (response.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+        // the body is read up to the end so that the connection can be reused
+        response.getBody();
+        return null;
+      }
+      if (!response.isSuccessful()) {
+        throw unexpectedResponseCode(requestUrl, response);
+      }
+      return parse(response, name, parser, timer);
+    } finally {
+      timer.stop();
+    }
   }
 
   /**
@@ -81,52 +324,296 @@ public class GitHubRestClient {
    * A 204 response code indicates organization membership.  302 and 404 codes are not treated as exceptional,
    * they indicate various ways in which a login is not a member of the organization.
    *
+   * Results are cached for the durations configured in {@link GitHubSettings#membershipCachePositiveTtl()} and
+   * {@link GitHubSettings#membershipCacheNegativeTtl()}. Concurrent checks of the same membership share the same request.
+   *
    * @see <a href="https://developer.github.com/v3/orgs/members/#response-if-requester-is-an-organization-member-and-user-is-a-member">GitHub members API</a>
    */
-  boolean isOrganizationMember(OAuth20Service scribe, OAuth2AccessToken accessToken, String organization, String login)
+  boolean isOrganizationMember(OAuth20Service scribe, OAuth2AccessToken accessToken, String organization, String login, Deadline deadline)
     throws IOException, ExecutionException, InterruptedException {
-    String requestUrl = settings.apiURL() + format("orgs/%s/members/%s", organization, login);
+    Boolean cached = membershipCache.get(organization, login);
+    if (cached != null) {
+      LOGGER.trace("Orgs membership of {} in {} found in cache : {}", login, organization, cached);
+      return cached;
+    }
+    UrlTemplate membershipUrl = settings.configuration().membershipUrl();
+    String requestUrl = membershipUrl.expand(organization, login);
+    // organizations and logins are case-insensitive
+    return singleFlight.call(requestUrl.toLowerCase(Locale.ENGLISH), deadline, () -> {
+      boolean member = requestOrganizationMembership(scribe, accessToken, login, requestUrl, membershipUrl.template(), deadline);
+      membershipCache.put(organization, login, member);
+      return member;
+    });
+  }
+
+  MembershipCache membershipCache() {
+    return membershipCache;
+  }
+
+  /**
+   * Evicts the pages received for the user, so that {@link #getCachedEmail(String)} and {@link #getCachedTeams(String)}
+   * do not return the data of the previous login
+   */
+  void evictUser(String login) {
+    String prefix = login + ' ';
+    conditionalCache.removeIf(key -> key.regionMatches(true, 0, prefix, 0, prefix.length()));
+  }
+
+  /**
+   * Evicts the pages of the users which list the team, as its members are not known
+   */
+  void evictTeam(String organization, String slug) {
+    conditionalCache.removeValuesIf(page -> containsAny(page, item -> item instanceof GsonTeams.GsonTeam
+      && organization.equalsIgnoreCase(((GsonTeams.GsonTeam) item).getOrganizationId()) && slug.equalsIgnoreCase(((GsonTeams.GsonTeam) item).getId())));
+  }
+
+  /**
+   * Evicts the pages of the users which list the organization or one of its teams
+   */
+  void evictOrganization(String organization) {
+    conditionalCache.removeValuesIf(page -> containsAny(page, item -> (item instanceof GsonTeams.GsonTeam
+      && organization.equalsIgnoreCase(((GsonTeams.GsonTeam) item).getOrganizationId()))
+      || (item instanceof GsonTeams.GsonOrganization && organization.equalsIgnoreCase(((GsonTeams.GsonOrganization) item).getLogin()))));
+  }
+
+  private static boolean containsAny(Page<?> page, Predicate<Object> predicate) {
+    return page.content instanceof List && ((List<?>) page.content).stream().anyMatch(predicate);
+  }
+
+  RateLimits rateLimits() {
+    return rateLimits;
+  }
+
+  private boolean requestOrganizationMembership(OAuth20Service scribe, OAuth2AccessToken accessToken, String login, String requestUrl, String urlTemplate,
+    Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    deadline.check();
     OAuthRequest request = new OAuthRequest(Verb.GET, requestUrl);
     scribe.signRequest(accessToken, request);
 
-    Response response = scribe.execute(request);
-    int code = response.getCode();
-    switch (code) {
-      case HttpURLConnection.HTTP_MOVED_TEMP:
-      case HttpURLConnection.HTTP_NOT_FOUND:
-      case HttpURLConnection.HTTP_NO_CONTENT:
-        LOGGER.trace("Orgs response received : {}", code);
-        return code == HttpURLConnection.HTTP_NO_CONTENT;
-      default:
-        throw unexpectedResponseCode(requestUrl, response);
+    GitHubMetrics.RequestTimer timer = metrics.startRequest("Membership", urlTemplate);
+    try {
+      Response response = timer.received(circuitBreaker.execute(scribe, request, deadline));
+      rateLimits.update(host(requestUrl), rateLimitOwner(accessToken, login), response);
+      int code = response.getCode();
+      switch (code) {
+        case HttpURLConnection.HTTP_MOVED_TEMP:
+        case HttpURLConnection.HTTP_NOT_FOUND:
+        case HttpURLConnection.HTTP_NO_CONTENT:
+          // the body is read up to the end so that the connection can be reused
+          response.getBody();
+          LOGGER.trace("Orgs response received : {}", code);
+          return code == HttpURLConnection.HTTP_NO_CONTENT;
+        default:
+          throw unexpectedResponseCode(requestUrl, response);
+      }
+    } finally {
+      timer.stop();
     }
   }
 
-  private static void getNextTeams(List<GsonTeams.GsonTeam> teams, Response response, OAuth20Service scribe, OAuth2AccessToken accessToken)
-    throws InterruptedException, ExecutionException, IOException {
-    String nextEndPoint = readNextEndPoint(response);
-    if (nextEndPoint == null) {
-      return;
+  /**
+   * When the first page links to the last one, the URLs of the other pages are known and they are fetched concurrently,
+   * at most {@link #MAX_PAGES_IN_FLIGHT} at a time. Otherwise the "next" links are followed one after the other.
+   */
+  private <T> List<T> getAllPages(String requestUrl, String owner, String name, Parser<List<T>> parser, OAuth20Service scribe, OAuth2AccessToken accessToken,
+    Deadline deadline) throws InterruptedException, ExecutionException, IOException {
+    Parser<List<T>> unmodifiableParser = json -> unmodifiableList(parser.parse(json));
+    Page<List<T>> page = getPage(requestUrl, owner, name, unmodifiableParser, scribe, accessToken, deadline);
+    List<T> items = new ArrayList<>(page.content);
+    List<String> otherPages = otherPageEndPoints(page);
+    if (!otherPages.isEmpty()) {
+      for (Page<List<T>> otherPage : getPages(otherPages, owner, name, unmodifiableParser, scribe, accessToken, deadline)) {
+        items.addAll(otherPage.content);
+      }
+      return items;
+    }
+    while (page.nextEndPoint != null) {
+      page = getPage(page.nextEndPoint, owner, name, unmodifiableParser, scribe, accessToken, deadline);
+      items.addAll(page.content);
+    }
+    return items;
+  }
+
+  /**
+   * The calling thread fetches pages too, and only waits for the helpers already running on pool threads. The helpers
+   * still queued in the pool are taken back: they do nothing when they eventually run, as the calling thread fetched
+   * their pages. Otherwise the calling thread, when it is itself a pool thread, could wait for a task which no thread
+   * is left to run.
+   */
+  private <T> List<Page<T>> getPages(List<String> endPoints, String owner, String name, Parser<T> parser, OAuth20Service scribe,
+    OAuth2AccessToken accessToken, Deadline deadline) throws InterruptedException, ExecutionException, IOException {
+    AtomicReferenceArray<Page<T>> pages = new AtomicReferenceArray<>(endPoints.size());
+    AtomicInteger nextIndex = new AtomicInteger();
+    GitHubExecutor.GitHubCall<Void> fetcher = () -> {
+      for (int index = nextIndex.getAndIncrement(); index < endPoints.size(); index = nextIndex.getAndIncrement()) {
+        pages.set(index, getPage(endPoints.get(index), owner, name, parser, scribe, accessToken, deadline));
+      }
+      return null;
+    };
+    List<Helper> helpers = new ArrayList<>();
+    try {
+      for (int i = 1; i < Math.min(MAX_PAGES_IN_FLIGHT, endPoints.size()); i++) {
+        Helper helper = new Helper();
+        helper.future = executor.submit(() -> helper.start() ? fetcher.call() : null);
+        helpers.add(helper);
+      }
+      fetcher.call();
+      for (Helper helper : helpers) {
+        if (helper.takeBack()) {
+          helper.future.cancel(false);
+        } else {
+          deadline.await(helper.future);
+        }
+      }
+    } finally {
+      // stops the pool threads as soon as possible when a page fails
+      nextIndex.set(endPoints.size());
+    }
+    List<Page<T>> result = new ArrayList<>(endPoints.size());
+    for (int i = 0; i < endPoints.size(); i++) {
+      result.add(pages.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return null if one of the pages is not in the conditional request cache
+   */
+  @CheckForNull
+  private <T> List<T> getCachedPages(String requestUrl, String owner) {
+    Page<List<T>> page = cachedPage(requestUrl, owner);
+    if (page == null) {
+      return null;
+    }
+    List<T> items = new ArrayList<>(page.content);
+    List<String> otherPages = otherPageEndPoints(page);
+    if (!otherPages.isEmpty()) {
+      for (String otherPage : otherPages) {
+        page = cachedPage(otherPage, owner);
+        if (page == null) {
+          return null;
+        }
+        items.addAll(page.content);
+      }
+      return items;
+    }
+    while (page.nextEndPoint != null) {
+      page = cachedPage(page.nextEndPoint, owner);
+      if (page == null) {
+        return null;
+      }
+      items.addAll(page.content);
     }
-    Response nextResponse = executeRequest(nextEndPoint, scribe, accessToken);
-    LOGGER.trace("Teams response received : {}", nextResponse.getBody());
-    teams.addAll(GsonTeams.parse(nextResponse.getBody()));
-    getNextTeams(teams, nextResponse, scribe, accessToken);
+    return items;
+  }
+
+  @CheckForNull
+  @SuppressWarnings("unchecked")
+  private <T> Page<T> cachedPage(String requestUrl, String owner) {
+    return (Page<T>) conditionalCache.get(owner + ' ' + requestUrl);
   }
 
-  private static Response executeRequest(String requestUrl, OAuth20Service scribe, OAuth2AccessToken accessToken) throws IOException, ExecutionException, InterruptedException {
+  /**
+   * Optional requests are not sent when the remaining requests of the access token are below the configured reserve,
+   * so that they are kept for the requests required to authenticate.
+   */
+  private boolean isRateLimitLow(String requestUrl, OAuth2AccessToken accessToken, String login) {
+    return rateLimits.isLow(host(requestUrl), rateLimitOwner(accessToken, login), settings.rateLimitReserve());
+  }
+
+  private static String host(String requestUrl) {
+    String authority = URI.create(requestUrl).getAuthority();
+    return authority == null ? requestUrl : authority;
+  }
+
+  /**
+   * The URL relative to the API URL, without the query, so that all the pages of an endpoint share the same template
+   */
+  private String urlTemplate(String requestUrl) {
+    int query = requestUrl.indexOf('?');
+    String url = query < 0 ? requestUrl : requestUrl.substring(0, query);
+    String apiUrl = settings.configuration().apiUrl();
+    return url.startsWith(apiUrl) ? url.substring(apiUrl.length()) : url;
+  }
+
+  /**
+   * Concurrent logins of the same user, for example from several browser tabs, share the same request for each page.
+   *
+   * @param owner the login of the user, which owns the access token as the login is read from the profile returned
+   * for that token, or {@link #ROSTER_OWNER}
+   */
+  private <T> Page<T> getPage(String requestUrl, String owner, String name, Parser<T> parser, OAuth20Service scribe, OAuth2AccessToken accessToken,
+    Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    return singleFlight.call(owner + ' ' + requestUrl, deadline, () -> requestPage(requestUrl, owner, name, parser, scribe, accessToken, deadline));
+  }
+
+  private LruCache<String, Page<?>> conditionalCache(String owner) {
+    return ROSTER_OWNER.equals(owner) ? rosterCache : conditionalCache;
+  }
+
+  /**
+   * Most logins fetch the same data as the previous login of the same user. The ETag of each page is kept with the parsed
+   * content, so that unchanged data costs a 304 response, which has no body and does not count against the rate limit.
+   */
+  private <T> Page<T> requestPage(String requestUrl, String owner, String name, Parser<T> parser, OAuth20Service scribe, OAuth2AccessToken accessToken,
+    Deadline deadline) throws IOException, ExecutionException, InterruptedException {
+    LruCache<String, Page<?>> cache = conditionalCache(owner);
+    String cacheKey = owner + ' ' + requestUrl;
+    @SuppressWarnings("unchecked")
+    Page<T> cached = (Page<T>) cache.get(cacheKey);
+    if (cached != null && settings.circuitBreakerFallbackToCache() && circuitBreaker.isOpen(requestUrl)) {
+      LOGGER.debug("GitHub is not available, {} of previous login are used", name);
+      return cached;
+    }
+    deadline.check();
     OAuthRequest request = new OAuthRequest(Verb.GET, requestUrl);
+    if (cached != null) {
+      request.addHeader("If-None-Match", cached.etag);
+    }
     scribe.signRequest(accessToken, request);
-    Response response = scribe.execute(request);
-    if (!response.isSuccessful()) {
-      throw unexpectedResponseCode(requestUrl, response);
+    GitHubMetrics.RequestTimer timer = metrics.startRequest(name, urlTemplate(requestUrl));
+    try {
+      Response response = timer.received(circuitBreaker.execute(scribe, request, deadline));
+      rateLimits.update(host(requestUrl), rateLimitOwner(accessToken, owner), response);
+      if (cached != null && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        // the body is read up to the end so that the connection can be reused
+        response.getBody();
+        LOGGER.trace("{} response not modified", name);
+        metrics.recordPage();
+        return cached;
+      }
+      if (!response.isSuccessful()) {
+        throw unexpectedResponseCode(requestUrl, response);
+      }
+      Page<T> page = new Page<>(header(response, "ETag"), parse(response, name, parser, timer), readNextEndPoint(response), readLastEndPoint(response));
+      if (page.etag != null) {
+        cache.put(cacheKey, page);
+      }
+      metrics.recordPage();
+      return page;
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /**
+   * The body is parsed while it is received, unless it has to be logged
+   */
+  private static <T> T parse(Response response, String name, Parser<T> parser, GitHubMetrics.RequestTimer timer) throws IOException {
+    if (LOGGER.isTraceEnabled()) {
+      String body = response.getBody();
+      LOGGER.trace("{} response received : {}", name, body);
+      timer.addBytes(body.getBytes(StandardCharsets.UTF_8).length);
+      return parser.parse(new StringReader(body));
+    }
+    try (Reader reader = new InputStreamReader(timer.countBytes(response.getStream()), StandardCharsets.UTF_8)) {
+      return parser.parse(reader);
     }
-    return response;
   }
 
   @CheckForNull
-  private static String readNextEndPoint(Response response) {
-    String link = response.getHeader("Link");
+  static String readNextEndPoint(Response response) {
+    String link = header(response, "Link");
     if (link == null || link.isEmpty() || !link.contains("rel=\"next\"")) {
       return null;
     }
@@ -137,7 +624,121 @@ public class GitHubRestClient {
     return nextLinkMatcher.group(1);
   }
 
+  /**
+   * End points of the pages following the given page, deduced from its "last" link. Empty if there is no such link,
+   * or if it does not have a page parameter.
+   */
+  private static List<String> otherPageEndPoints(Page<?> page) {
+    String last = page.lastEndPoint;
+    if (last == null || page.nextEndPoint == null) {
+      return emptyList();
+    }
+    Matcher pageMatcher = PAGE_PARAMETER_PATTERN.matcher(last);
+    if (!pageMatcher.find()) {
+      return emptyList();
+    }
+    int lastPage = Integer.parseInt(pageMatcher.group(2));
+    List<String> endPoints = new ArrayList<>();
+    for (int pageNumber = 2; pageNumber <= lastPage; pageNumber++) {
+      endPoints.add(last.substring(0, pageMatcher.start()) + pageMatcher.group(1) + pageNumber + last.substring(pageMatcher.end()));
+    }
+    return endPoints;
+  }
+
+  @CheckForNull
+  static String readLastEndPoint(Response response) {
+    String link = header(response, "Link");
+    if (link == null) {
+      return null;
+    }
+    Matcher lastLinkMatcher = LAST_LINK_PATTERN.matcher(link);
+    return lastLinkMatcher.find() ? lastLinkMatcher.group(1) : null;
+  }
+
+  /**
+   * Header names are case-insensitive, and are lower-case over HTTP/2
+   */
+  @CheckForNull
+  static String header(Response response, String name) {
+    String value = response.getHeader(name);
+    if (value != null) {
+      return value;
+    }
+    for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+      if (name.equalsIgnoreCase(header.getKey())) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * GitHub counts the requests sent with all the access tokens of a user against the same rate limit, and the requests
+   * sent with an installation token of a GitHub App against the rate limit of the installation
+   *
+   * @param login the owner of the access token, or {@link #ROSTER_OWNER} for a service token
+   */
+  private static String rateLimitOwner(OAuth2AccessToken accessToken, String login) {
+    if (accessToken instanceof GitHubAppTokens.InstallationAccessToken) {
+      return "installation:" + ((GitHubAppTokens.InstallationAccessToken) accessToken).installationId();
+    }
+    return login.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Access tokens are not kept in memory, only their hash
+   */
+  private static String tokenOwner(OAuth2AccessToken accessToken) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(accessToken.getAccessToken().getBytes(StandardCharsets.UTF_8));
+      return "token:" + Base64.getEncoder().encodeToString(hash);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   private static IllegalStateException unexpectedResponseCode(String requestUrl, Response response) throws IOException {
+    RateLimits.RateLimit rateLimit = RateLimits.RateLimit.of(response);
+    if (rateLimit != null && rateLimit.getRemaining() == 0 && (response.getCode() == HTTP_FORBIDDEN || response.getCode() == HTTP_TOO_MANY_REQUESTS)) {
+      // the body is read up to the end so that the connection can be reused
+      response.getBody();
+      return new IllegalStateException(format("Fail to execute request '%s'. GitHub API rate limit is exceeded until %s", requestUrl, Instant.ofEpochMilli(rateLimit.getResetAt())));
+    }
     return new IllegalStateException(format("Fail to execute request '%s'. HTTP code: %s, response: %s", requestUrl, response.getCode(), response.getBody()));
   }
+
+  /**
+   * Task fetching pages in the pool, which is either started by a pool thread or taken back by the calling thread, but not both
+   */
+  private static final class Helper {
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private CompletableFuture<Void> future;
+
+    boolean start() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    boolean takeBack() {
+      return claimed.compareAndSet(false, true);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Parser<T> {
+    T parse(Reader json) throws IOException;
+  }
+
+  private static class Page<T> {
+    private final String etag;
+    private final T content;
+    private final String nextEndPoint;
+    private final String lastEndPoint;
+
+    Page(@Nullable String etag, T content, @Nullable String nextEndPoint, @Nullable String lastEndPoint) {
+      this.etag = etag;
+      this.content = content;
+      this.nextEndPoint = nextEndPoint;
+      this.lastEndPoint = lastEndPoint;
+    }
+  }
 }
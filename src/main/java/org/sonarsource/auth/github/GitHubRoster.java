@@ -0,0 +1,152 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.CheckForNull;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
+
+/**
+ * Latest {@link RosterIndex} built by {@link GitHubRosterIndexer}. Logins only rely on it while it is younger than
+ * {@link GitHubSettings#rosterMaxAge()}, otherwise they request GitHub as usual. A user who is not in the index may
+ * have joined the organization since it was built, so the index only confirms memberships, it never denies them.
+ *
+ * Changes notified by GitHub webhooks invalidate the affected entries until an index built after the change replaces the
+ * current one.
+ */
+@ServerSide
+public class GitHubRoster {
+
+  private final GitHubSettings settings;
+  private final System2 system2;
+  private volatile RosterIndex index;
+  // dates of the changes, keyed by the invalidated entries
+  private final ConcurrentMap<String, Long> invalidations = new ConcurrentHashMap<>();
+
+  public GitHubRoster(GitHubSettings settings) {
+    this(settings, System2.INSTANCE);
+  }
+
+  GitHubRoster(GitHubSettings settings, System2 system2) {
+    this.settings = settings;
+    this.system2 = system2;
+  }
+
+  /**
+   * Invalidations older than the index are dropped, as the index includes their changes
+   */
+  void update(RosterIndex index) {
+    this.index = index;
+    invalidations.values().removeIf(changedAt -> changedAt < index.builtAt());
+  }
+
+  void invalidateMember(String organization, String login) {
+    invalidate(memberKey(organization, login));
+  }
+
+  void invalidateTeams(String login) {
+    invalidate(teamsKey(login));
+  }
+
+  void invalidateOrganization(String organization) {
+    invalidate(organizationKey(organization));
+  }
+
+  /**
+   * The members of a deleted or renamed team are not known, so the teams of all the members of the organization are invalidated
+   */
+  void invalidateOrganizationTeams(String organization) {
+    invalidate(organizationTeamsKey(organization));
+  }
+
+  /**
+   * @return true if the fresh index contains the membership, false if it is not known
+   */
+  boolean isMember(String organization, String login) {
+    RosterIndex fresh = freshIndex();
+    return fresh != null && fresh.isIndexed(organization) && fresh.isMember(organization, login)
+      && !isInvalidated(fresh, organizationKey(organization)) && !isInvalidated(fresh, memberKey(organization, login));
+  }
+
+  /**
+   * @return the teams of the user in the configured organizations, null if the index is cold or stale, if one of the
+   * organizations is not indexed or if the user is not indexed
+   */
+  @CheckForNull
+  List<GsonTeams.GsonTeam> teams(GitHubConfiguration configuration, String login) {
+    RosterIndex fresh = freshIndex();
+    if (fresh == null) {
+      return null;
+    }
+    for (String organization : configuration.organizations()) {
+      if (!fresh.isIndexed(organization) || isInvalidated(fresh, organizationKey(organization)) || isInvalidated(fresh, organizationTeamsKey(organization))) {
+        return null;
+      }
+    }
+    return isInvalidated(fresh, teamsKey(login)) ? null : fresh.teams(login);
+  }
+
+  @CheckForNull
+  RosterIndex index() {
+    return index;
+  }
+
+  private void invalidate(String key) {
+    invalidations.put(key, system2.now());
+  }
+
+  private boolean isInvalidated(RosterIndex index, String key) {
+    Long changedAt = invalidations.get(key);
+    return changedAt != null && changedAt >= index.builtAt();
+  }
+
+  private static String memberKey(String organization, String login) {
+    return "member " + lowerCase(organization) + '/' + lowerCase(login);
+  }
+
+  private static String teamsKey(String login) {
+    return "teams " + lowerCase(login);
+  }
+
+  private static String organizationKey(String organization) {
+    return "organization " + lowerCase(organization);
+  }
+
+  private static String organizationTeamsKey(String organization) {
+    return "organization-teams " + lowerCase(organization);
+  }
+
+  private static String lowerCase(String s) {
+    return s.toLowerCase(Locale.ENGLISH);
+  }
+
+  @CheckForNull
+  private RosterIndex freshIndex() {
+    RosterIndex current = index;
+    if (current == null || current.builtAt() + settings.rosterMaxAge() * 1_000L <= system2.now()) {
+      return null;
+    }
+    return current;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.sonar.api.Startable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Indexes in the background the members and the teams of the configured organizations, with the installation tokens of
+ * {@link GitHubAppTokens} or the service token of {@link GitHubSettings#rosterToken()}, into {@link GitHubRoster}. Pages are requested with their ETag, so each refresh
+ * only downloads and parses what changed since the previous one.
+ */
+@ServerSide
+public class GitHubRosterIndexer implements Startable {
+
+  private static final Logger LOGGER = Loggers.get(GitHubRosterIndexer.class);
+
+  private final GitHubSettings settings;
+  private final GitHubRestClient gitHubRestClient;
+  private final ScribeServiceCache scribeServices;
+  private final GitHubExecutor executor;
+  private final GitHubRoster roster;
+  private final GitHubAppTokens appTokens;
+  private final System2 system2;
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private ScheduledFuture<?> schedule;
+
+  public GitHubRosterIndexer(GitHubSettings settings, GitHubRestClient gitHubRestClient, ScribeServiceCache scribeServices, GitHubExecutor executor,
+    GitHubRoster roster, GitHubAppTokens appTokens) {
+    this(settings, gitHubRestClient, scribeServices, executor, roster, appTokens, System2.INSTANCE);
+  }
+
+  GitHubRosterIndexer(GitHubSettings settings, GitHubRestClient gitHubRestClient, ScribeServiceCache scribeServices, GitHubExecutor executor,
+    GitHubRoster roster, GitHubAppTokens appTokens, System2 system2) {
+    this.settings = settings;
+    this.gitHubRestClient = gitHubRestClient;
+    this.scribeServices = scribeServices;
+    this.executor = executor;
+    this.roster = roster;
+    this.appTokens = appTokens;
+    this.system2 = system2;
+  }
+
+  /**
+   * The interval is read once. The other settings are read at each refresh, so that the token can be set without restarting.
+   */
+  @Override
+  public void start() {
+    schedule = executor.scheduleWithFixedDelay(this::triggerRefresh, 0L, settings.rosterRefreshInterval(), TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (schedule != null) {
+      schedule.cancel(false);
+    }
+  }
+
+  boolean isConfigured() {
+    return settings.isEnabled() && (!settings.rosterToken().isEmpty() || appTokens.isEnabled()) && settings.configuration().isOrganizationMembershipRequired();
+  }
+
+  /**
+   * Runs on the timer thread, so the refresh itself is sent to the pool. A refresh slower than the interval is not
+   * started twice.
+   */
+  private void triggerRefresh() {
+    if (isConfigured() && refreshing.compareAndSet(false, true)) {
+      executor.submit(() -> {
+        refresh();
+        return null;
+      }).whenComplete((result, failure) -> {
+        refreshing.set(false);
+        if (failure != null) {
+          LOGGER.warn("Fail to index GitHub organizations", failure);
+        }
+      });
+    }
+  }
+
+  /**
+   * An organization which fails to be indexed is left out of the index, so that its logins request GitHub.
+   * The installation token of the GitHub App is preferred to the service token.
+   */
+  void refresh() throws InterruptedException {
+    GitHubConfiguration configuration = settings.configuration();
+    OAuth20Service scribe = scribeServices.getForServer(settings.clientId(), settings.clientSecret());
+    String rosterToken = settings.rosterToken();
+    long start = system2.now();
+    RosterIndex.Builder builder = RosterIndex.builder();
+    for (String organization : configuration.organizations()) {
+      try {
+        OAuth2AccessToken token = appTokens.token(organization, Deadline.NONE);
+        if (token == null && rosterToken.isEmpty()) {
+          LOGGER.debug("No token to index members of GitHub organization '{}'", organization);
+          continue;
+        }
+        index(builder, scribe, token == null ? new OAuth2AccessToken(rosterToken) : token, organization);
+      } catch (IOException | ExecutionException | RuntimeException e) {
+        LOGGER.warn("Fail to index members of GitHub organization '{}', their logins will request GitHub: {}", organization, e.getMessage());
+      }
+    }
+    RosterIndex index = builder.build(start);
+    roster.update(index);
+    LOGGER.debug("{} members of GitHub organizations indexed in {} ms", index.size(), system2.now() - start);
+  }
+
+  private void index(RosterIndex.Builder builder, OAuth20Service scribe, OAuth2AccessToken token, String organization)
+    throws IOException, ExecutionException, InterruptedException {
+    GsonTeams.GsonOrganization gitHubOrganization = gitHubRestClient.getOrganization(scribe, token, organization, Deadline.NONE);
+    List<GsonUser> members = gitHubRestClient.getOrganizationMembers(scribe, token, organization, Deadline.NONE);
+    Map<GsonTeams.GsonTeam, List<GsonUser>> teamMembers = new LinkedHashMap<>();
+    // one team after the other, as the roster is not in a hurry and shares the rate limit of the token
+    for (GsonTeams.GsonTeam team : gitHubRestClient.getOrganizationTeams(scribe, token, organization, Deadline.NONE)) {
+      teamMembers.put(team, gitHubRestClient.getTeamMembers(scribe, token, organization, team.getId(), Deadline.NONE));
+    }
+    builder.addOrganization(gitHubOrganization, members, teamMembers);
+  }
+}
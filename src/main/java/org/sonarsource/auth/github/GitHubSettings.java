@@ -21,6 +21,8 @@ package org.sonarsource.auth.github;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.sonar.api.config.PropertyDefinition;
@@ -30,8 +32,10 @@ import org.sonar.api.server.ServerSide;
 import static java.lang.String.format;
 import static java.lang.String.valueOf;
 import static org.sonar.api.PropertyType.BOOLEAN;
+import static org.sonar.api.PropertyType.INTEGER;
 import static org.sonar.api.PropertyType.SINGLE_SELECT_LIST;
 import static org.sonar.api.PropertyType.STRING;
+import static org.sonar.api.PropertyType.TEXT;
 
 @ServerSide
 public class GitHubSettings {
@@ -41,9 +45,15 @@ public class GitHubSettings {
   private static final String ENABLED = "sonar.auth.github.enabled";
   private static final String ALLOW_USERS_TO_SIGN_UP = "sonar.auth.github.allowUsersToSignUp";
   private static final String GROUPS_SYNC = "sonar.auth.github.groupsSync";
+  private static final String GROUPS_SYNC_CACHE_MAX_AGE = "sonar.auth.github.groupsSync.cache.maxAge";
   private static final String API_URL = "sonar.auth.github.apiUrl";
   private static final String WEB_URL = "sonar.auth.github.webUrl";
 
+  static final String API_MODE = "sonar.auth.github.apiMode";
+  static final String API_MODE_REST = "REST";
+  static final String API_MODE_GRAPHQL = "GraphQL";
+  static final String API_MODE_DEFAULT_VALUE = API_MODE_REST;
+
   static final String LOGIN_STRATEGY = "sonar.auth.github.loginStrategy";
   static final String LOGIN_STRATEGY_UNIQUE = "Unique";
   static final String LOGIN_STRATEGY_PROVIDER_ID = "Same as GitHub login";
@@ -51,15 +61,103 @@ public class GitHubSettings {
 
   private static final String ORGANIZATIONS = "sonar.auth.github.organizations";
 
+  private static final String MEMBERSHIP_CACHE_POSITIVE_TTL = "sonar.auth.github.organizations.cache.positiveTtl";
+  private static final String MEMBERSHIP_CACHE_NEGATIVE_TTL = "sonar.auth.github.organizations.cache.negativeTtl";
+
+  private static final String RATE_LIMIT_RESERVE = "sonar.auth.github.rateLimit.reserve";
+
+  private static final String CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = "sonar.auth.github.circuitBreaker.failureRateThreshold";
+  private static final String CIRCUIT_BREAKER_FALLBACK = "sonar.auth.github.circuitBreaker.fallbackToCache";
+
+  static final String HTTP_TRANSPORT = "sonar.auth.github.http.transport";
+  static final String HTTP_TRANSPORT_DEFAULT = "Default";
+  static final String HTTP_TRANSPORT_POOLED = "Pooled";
+  private static final String LOGIN_TIMEOUT = "sonar.auth.github.loginTimeout";
+
+  private static final String ROSTER_TOKEN = "sonar.auth.github.roster.token.secured";
+  private static final String APP_ID = "sonar.auth.github.app.id";
+  private static final String APP_PRIVATE_KEY = "sonar.auth.github.app.privateKey.secured";
+  private static final String WEBHOOK_SECRET = "sonar.auth.github.webhook.secret.secured";
+  private static final String METRICS_TOKEN = "sonar.auth.github.metrics.token.secured";
+
+  // Tuning of the HTTP client, circuit breaker and organization members index. These properties are not part of the
+  // definitions, so they are not displayed in the administration; the defaults can only be overridden in sonar.properties.
+  private static final String CIRCUIT_BREAKER_SLOW_CALL_DURATION = "sonar.auth.github.circuitBreaker.slowCallDuration";
+  private static final String CIRCUIT_BREAKER_OPEN_DURATION = "sonar.auth.github.circuitBreaker.openDuration";
+  private static final int CIRCUIT_BREAKER_OPEN_DURATION_DEFAULT_VALUE = 30;
+  private static final String HTTP_MAX_CONNECTIONS = "sonar.auth.github.http.maxConnections";
+  private static final int HTTP_MAX_CONNECTIONS_DEFAULT_VALUE = 20;
+  private static final String HTTP_IDLE_TIMEOUT = "sonar.auth.github.http.idleTimeout";
+  private static final int HTTP_IDLE_TIMEOUT_DEFAULT_VALUE = 300;
+  private static final String HTTP2 = "sonar.auth.github.http.http2";
+  private static final String HTTP_THREADS = "sonar.auth.github.http.threads";
+  private static final int HTTP_THREADS_DEFAULT_VALUE = 16;
+  private static final String HTTP_VIRTUAL_THREADS = "sonar.auth.github.http.virtualThreads";
+  private static final String HTTP_CONNECT_TIMEOUT = "sonar.auth.github.http.connectTimeout";
+  private static final int HTTP_CONNECT_TIMEOUT_DEFAULT_VALUE = 10_000;
+  private static final String HTTP_READ_TIMEOUT = "sonar.auth.github.http.readTimeout";
+  private static final int HTTP_READ_TIMEOUT_DEFAULT_VALUE = 30_000;
+  private static final String ROSTER_REFRESH_INTERVAL = "sonar.auth.github.roster.refreshInterval";
+  private static final int ROSTER_REFRESH_INTERVAL_DEFAULT_VALUE = 600;
+  private static final String ROSTER_MAX_AGE = "sonar.auth.github.roster.maxAge";
+  private static final long ROSTER_MAX_AGE_DEFAULT_VALUE = 1800L;
+
+  static final String MEMBERSHIP_STRATEGY = "sonar.auth.github.organizations.membershipStrategy";
+  static final String MEMBERSHIP_STRATEGY_SEQUENTIAL = "Sequential";
+  static final String MEMBERSHIP_STRATEGY_PARALLEL = "Parallel";
+  static final String MEMBERSHIP_STRATEGY_USER_ORGANIZATIONS = "User organizations";
+  static final String MEMBERSHIP_STRATEGY_DEFAULT_VALUE = MEMBERSHIP_STRATEGY_SEQUENTIAL;
+
   private static final String CATEGORY = "github";
   private static final String SUBCATEGORY = "authentication";
 
   private final Settings settings;
+  private final AtomicReference<GitHubConfiguration> configuration = new AtomicReference<>();
+  private final List<ConfigurationListener> listeners = new CopyOnWriteArrayList<>();
 
   public GitHubSettings(Settings settings) {
     this.settings = settings;
   }
 
+  /**
+   * Settings can be changed on another node of the cluster without notification, so they are read again on each call.
+   * The snapshot is only rebuilt, and the listeners notified, when one of them differs.
+   */
+  GitHubConfiguration configuration() {
+    String apiUrl = settings.getString(API_URL);
+    String webUrl = settings.getString(WEB_URL);
+    String organizations = settings.getString(ORGANIZATIONS);
+    boolean syncGroups = settings.getBoolean(GROUPS_SYNC);
+    String loginStrategy = emptyIfNull(settings.getString(LOGIN_STRATEGY));
+    String apiMode = emptyIfNull(settings.getString(API_MODE));
+    GitHubConfiguration current = configuration.get();
+    if (current != null && current.isBuiltFrom(apiUrl, webUrl, organizations, syncGroups, loginStrategy, apiMode)) {
+      return current;
+    }
+    GitHubConfiguration changed = new GitHubConfiguration(apiUrl, webUrl, organizations, settings.getStringArray(ORGANIZATIONS), syncGroups,
+      loginStrategy, apiMode);
+    if (!configuration.compareAndSet(current, changed)) {
+      // rebuilt concurrently by another thread, which notifies the listeners
+      return changed;
+    }
+    if (current != null) {
+      listeners.forEach(listener -> listener.onChange(current, changed));
+    }
+    return changed;
+  }
+
+  /**
+   * The listener is called by the thread that detects the change, after the new configuration is visible
+   */
+  void addConfigurationListener(ConfigurationListener listener) {
+    listeners.add(listener);
+  }
+
+  @FunctionalInterface
+  interface ConfigurationListener {
+    void onChange(GitHubConfiguration previous, GitHubConfiguration current);
+  }
+
   public String clientId() {
     return emptyIfNull(settings.getString(CLIENT_ID));
   }
@@ -77,33 +175,205 @@ public class GitHubSettings {
   }
 
   public String loginStrategy() {
-    return emptyIfNull(settings.getString(LOGIN_STRATEGY));
+    return configuration().loginStrategy();
   }
 
   public boolean syncGroups() {
-    return settings.getBoolean(GROUPS_SYNC);
+    return configuration().syncGroups();
+  }
+
+  /**
+   * In seconds, 0 if teams are fetched at each login
+   */
+  public long teamsCacheMaxAge() {
+    return Math.max(0L, settings.getLong(GROUPS_SYNC_CACHE_MAX_AGE));
   }
 
   @CheckForNull
   public String webURL() {
-    return urlWithEndingSlash(settings.getString(WEB_URL));
+    return configuration().webUrl();
   }
 
   @CheckForNull
   public String apiURL() {
-    return urlWithEndingSlash(settings.getString(API_URL));
+    return configuration().apiUrl();
+  }
+
+  /**
+   * https://api.github.com/graphql for github.com, https://github.company.com/api/graphql for GitHub Enterprise
+   */
+  @CheckForNull
+  public String graphQLURL() {
+    return configuration().graphQLUrl();
+  }
+
+  public String apiMode() {
+    return configuration().apiMode();
   }
 
   public String[] organizations() {
-    return settings.getStringArray(ORGANIZATIONS);
+    return configuration().organizations();
   }
 
-  @CheckForNull
-  private static String urlWithEndingSlash(@Nullable String url) {
-    if (url != null && !url.endsWith("/")) {
-      return url + "/";
-    }
-    return url;
+  public String membershipStrategy() {
+    return emptyIfNull(settings.getString(MEMBERSHIP_STRATEGY));
+  }
+
+  /**
+   * In seconds, 0 if membership is not cached
+   */
+  public long membershipCachePositiveTtl() {
+    return Math.max(0L, settings.getLong(MEMBERSHIP_CACHE_POSITIVE_TTL));
+  }
+
+  /**
+   * In seconds, 0 if non-membership is not cached
+   */
+  public long membershipCacheNegativeTtl() {
+    return Math.max(0L, settings.getLong(MEMBERSHIP_CACHE_NEGATIVE_TTL));
+  }
+
+  /**
+   * Number of remaining requests kept for authentication, 0 if optional requests are always sent
+   */
+  public long rateLimitReserve() {
+    return Math.max(0L, settings.getLong(RATE_LIMIT_RESERVE));
+  }
+
+  /**
+   * Percentage of failed or slow requests from which GitHub requests are suspended, 0 if requests are never suspended
+   */
+  public int circuitBreakerFailureRateThreshold() {
+    return Math.min(100, Math.max(0, settings.getInt(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD)));
+  }
+
+  /**
+   * In milliseconds, 0 if requests are never considered as slow
+   */
+  public long circuitBreakerSlowCallDuration() {
+    return Math.max(0L, settings.getLong(CIRCUIT_BREAKER_SLOW_CALL_DURATION));
+  }
+
+  /**
+   * In seconds
+   */
+  public int circuitBreakerOpenDuration() {
+    return positiveOrDefault(settings.getInt(CIRCUIT_BREAKER_OPEN_DURATION), CIRCUIT_BREAKER_OPEN_DURATION_DEFAULT_VALUE);
+  }
+
+  public boolean circuitBreakerFallbackToCache() {
+    return settings.getBoolean(CIRCUIT_BREAKER_FALLBACK);
+  }
+
+  public String httpTransport() {
+    return emptyIfNull(settings.getString(HTTP_TRANSPORT));
+  }
+
+  public int httpMaxConnections() {
+    return positiveOrDefault(settings.getInt(HTTP_MAX_CONNECTIONS), HTTP_MAX_CONNECTIONS_DEFAULT_VALUE);
+  }
+
+  /**
+   * In seconds
+   */
+  public int httpIdleTimeout() {
+    return positiveOrDefault(settings.getInt(HTTP_IDLE_TIMEOUT), HTTP_IDLE_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  public boolean http2() {
+    return !settings.hasKey(HTTP2) || settings.getBoolean(HTTP2);
+  }
+
+  /**
+   * Read once, when the server starts
+   */
+  public int httpThreads() {
+    return positiveOrDefault(settings.getInt(HTTP_THREADS), HTTP_THREADS_DEFAULT_VALUE);
+  }
+
+  /**
+   * Read once, when the server starts
+   */
+  public boolean httpVirtualThreads() {
+    return settings.getBoolean(HTTP_VIRTUAL_THREADS);
+  }
+
+  /**
+   * In milliseconds
+   */
+  public int httpConnectTimeout() {
+    return positiveOrDefault(settings.getInt(HTTP_CONNECT_TIMEOUT), HTTP_CONNECT_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  /**
+   * In milliseconds
+   */
+  public int httpReadTimeout() {
+    return positiveOrDefault(settings.getInt(HTTP_READ_TIMEOUT), HTTP_READ_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  /**
+   * In milliseconds, 0 if the callback has no deadline
+   */
+  public long loginTimeout() {
+    return Math.max(0L, settings.getLong(LOGIN_TIMEOUT));
+  }
+
+  /**
+   * Token of a service account used to index the members of the organizations, empty if they are not indexed
+   */
+  public String rosterToken() {
+    return emptyIfNull(settings.getString(ROSTER_TOKEN));
+  }
+
+  /**
+   * In seconds, read once, when the server starts
+   */
+  public int rosterRefreshInterval() {
+    return positiveOrDefault(settings.getInt(ROSTER_REFRESH_INTERVAL), ROSTER_REFRESH_INTERVAL_DEFAULT_VALUE);
+  }
+
+  /**
+   * In seconds, 0 if the index is never used
+   */
+  public long rosterMaxAge() {
+    return settings.hasKey(ROSTER_MAX_AGE) ? Math.max(0L, settings.getLong(ROSTER_MAX_AGE)) : ROSTER_MAX_AGE_DEFAULT_VALUE;
+  }
+
+  /**
+   * Identifier of the GitHub App installed on the organizations, empty if memberships are requested with the token of the users
+   */
+  public String appId() {
+    return emptyIfNull(settings.getString(APP_ID)).trim();
+  }
+
+  /**
+   * PEM encoded private key of the GitHub App, empty if not set
+   */
+  public String appPrivateKey() {
+    return emptyIfNull(settings.getString(APP_PRIVATE_KEY));
+  }
+
+  public boolean isAppConfigured() {
+    return !appId().isEmpty() && !appPrivateKey().isEmpty();
+  }
+
+  /**
+   * Secret shared with the GitHub webhooks, empty if the webhooks are not accepted
+   */
+  public String webhookSecret() {
+    return emptyIfNull(settings.getString(WEBHOOK_SECRET));
+  }
+
+  /**
+   * Token expected by the metrics web service, empty if the metrics are not exposed
+   */
+  public String metricsToken() {
+    return emptyIfNull(settings.getString(METRICS_TOKEN));
+  }
+
+  private static int positiveOrDefault(int value, int defaultValue) {
+    return value > 0 ? value : defaultValue;
   }
 
   private static String emptyIfNull(@Nullable  String s) {
@@ -166,6 +436,16 @@ public class GitHubSettings {
         .defaultValue(valueOf(false))
         .index(index++)
         .build(),
+      PropertyDefinition.builder(GROUPS_SYNC_CACHE_MAX_AGE)
+        .name("Teams cache maximum age")
+        .description("Number of seconds during which the teams fetched at the previous login of a user are used to synchronize groups, " +
+          "while they are refreshed in the background. Older teams are fetched again before authenticating the user. 0 disables the cache.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(INTEGER)
+        .defaultValue(valueOf(0))
+        .index(index++)
+        .build(),
       PropertyDefinition.builder(API_URL)
         .name("The API url for a GitHub instance.")
         .description("The API url for a GitHub instance. https://api.github.com/ for github.com, https://github.company.com/api/v3/ when using Github Enterprise")
@@ -185,6 +465,19 @@ public class GitHubSettings {
         .defaultValue(valueOf("https://github.com/"))
         .index(index++)
         .build(),
+      PropertyDefinition.builder(API_MODE)
+        .name("API")
+        .description(format("When set to '%s', the profile, organizations and teams of the user are fetched with the REST API. " +
+          "When set to '%s', they are fetched with the GraphQL API, which requires much less requests for users belonging to many teams. " +
+          "The private email address of the user is always fetched with the REST API.",
+          API_MODE_REST, API_MODE_GRAPHQL))
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(SINGLE_SELECT_LIST)
+        .defaultValue(API_MODE_DEFAULT_VALUE)
+        .options(API_MODE_REST, API_MODE_GRAPHQL)
+        .index(index++)
+        .build(),
       PropertyDefinition.builder(ORGANIZATIONS)
         .name("Organizations")
         .description("Only members of these organizations will be able to authenticate to the server. " +
@@ -193,6 +486,140 @@ public class GitHubSettings {
         .category(CATEGORY)
         .subCategory(SUBCATEGORY)
         .index(index++)
+        .build(),
+      PropertyDefinition.builder(MEMBERSHIP_STRATEGY)
+        .name("Organization membership check")
+        .description(format("When set to '%s', organizations are checked one after the other. " +
+          "When set to '%s', all organizations are checked concurrently and the user is accepted as soon as one membership is confirmed. " +
+          "In these two cases, the organizations the users most often belong to are checked first. " +
+          "When set to '%s', the organizations of the user are fetched once and compared to this list, " +
+          "so that the number of requests does not depend on the number of organizations.",
+          MEMBERSHIP_STRATEGY_SEQUENTIAL, MEMBERSHIP_STRATEGY_PARALLEL, MEMBERSHIP_STRATEGY_USER_ORGANIZATIONS))
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(SINGLE_SELECT_LIST)
+        .defaultValue(MEMBERSHIP_STRATEGY_DEFAULT_VALUE)
+        .options(MEMBERSHIP_STRATEGY_SEQUENTIAL, MEMBERSHIP_STRATEGY_PARALLEL, MEMBERSHIP_STRATEGY_USER_ORGANIZATIONS)
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(MEMBERSHIP_CACHE_POSITIVE_TTL)
+        .name("Organization membership cache duration")
+        .description("Number of seconds during which a confirmed organization membership is remembered, so that the next logins of the user " +
+          "do not check it again. A user removed from the organization can still authenticate during this period. 0 disables the cache.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(INTEGER)
+        .defaultValue(valueOf(0))
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(MEMBERSHIP_CACHE_NEGATIVE_TTL)
+        .name("Organization non-membership cache duration")
+        .description("Number of seconds during which the fact that a user is not a member of an organization is remembered. " +
+          "A user added to the organization is still rejected during this period. 0 disables the cache.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(INTEGER)
+        .defaultValue(valueOf(0))
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(RATE_LIMIT_RESERVE)
+        .name("Rate limit reserve")
+        .description("When the number of remaining GitHub API requests of a user is below this value, the email and teams received at " +
+          "the previous login are used instead of being requested again, so that the remaining requests are kept for authentication. " +
+          "Teams are not synchronized if they are not known. 0 disables this behavior.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(INTEGER)
+        .defaultValue(valueOf(0))
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD)
+        .name("Circuit breaker failure rate")
+        .description("Percentage of the last " + GitHubCircuitBreaker.WINDOW_SIZE + " requests to a GitHub host which, when they failed or were slow, " +
+          "suspends the requests to this host. Logins then fail immediately instead of waiting for GitHub. 0 disables the circuit breaker.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(INTEGER)
+        .defaultValue(valueOf(0))
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(CIRCUIT_BREAKER_FALLBACK)
+        .name("Use cached data when GitHub is not available")
+        .description("When requests to the GitHub API are suspended by the circuit breaker, use the email, organizations and teams " +
+          "received at the previous login of the user, if any. The profile is always requested, as it identifies the owner of the access token.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(BOOLEAN)
+        .defaultValue(valueOf(false))
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(HTTP_TRANSPORT)
+        .name("HTTP transport")
+        .description(format("When set to '%s', a new connection to GitHub is opened for each request. " +
+          "When set to '%s', connections to GitHub are kept alive and reused by the next requests.",
+          HTTP_TRANSPORT_DEFAULT, HTTP_TRANSPORT_POOLED))
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(SINGLE_SELECT_LIST)
+        .defaultValue(HTTP_TRANSPORT_DEFAULT)
+        .options(HTTP_TRANSPORT_DEFAULT, HTTP_TRANSPORT_POOLED)
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(LOGIN_TIMEOUT)
+        .name("Login timeout")
+        .description("Maximum time in milliseconds spent requesting GitHub for a login. Once elapsed, the email and teams received at the " +
+          "previous login are used if they are not received yet, and the login fails if the user or the organization membership are not " +
+          "received yet. 0 means no limit.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(INTEGER)
+        .defaultValue(valueOf(0))
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(ROSTER_TOKEN)
+        .name("Organization members index token")
+        .description("Token of a service account, with the read:org scope, used to index in the background the members and teams of the " +
+          "organizations listed above. Memberships found in the index are not requested at login, and groups are synchronized from the teams " +
+          "of these organizations only. Users missing from the index are checked with GitHub as usual. Leave empty to disable the index.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(APP_ID)
+        .name("GitHub App ID")
+        .description("ID of a GitHub App installed on the organizations listed above, with the read-only permission on their members. " +
+          "Organization memberships are then checked, and the organization members index is built, with the installation tokens of the App " +
+          "instead of the tokens of the users. Leave empty to use the tokens of the users.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(APP_PRIVATE_KEY)
+        .name("GitHub App private key")
+        .description("Private key of the GitHub App, as downloaded from GitHub in PEM format.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .type(TEXT)
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(WEBHOOK_SECRET)
+        .name("Webhook secret")
+        .description("Secret of the GitHub webhooks sending the membership, organization and team events to <server base URL>/authgithub/webhook. " +
+          "Each event evicts the cached memberships and teams of the users it concerns, so that long cache durations can be used. " +
+          "In a Data Center cluster, only the caches of the node receiving the event are evicted. " +
+          "Leave empty to reject the webhooks.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .index(index++)
+        .build(),
+      PropertyDefinition.builder(METRICS_TOKEN)
+        .name("Metrics token")
+        .description("Token expected in the " + GitHubMetricsWs.TOKEN_HEADER + " header of the requests to api/authgithub/metrics, " +
+          "which returns the latencies of the GitHub requests, the remaining rate limits and the state of the circuit breaker. " +
+          "Leave empty to disable this web service.")
+        .category(CATEGORY)
+        .subCategory(SUBCATEGORY)
+        .index(index++)
         .build());
   }
 }
@@ -0,0 +1,173 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Evicts the cached memberships and teams affected by the events of GitHub webhooks, so that removals are reflected
+ * before the caches expire. Only the users concerned by an event are evicted, including the pages of the conditional
+ * requests of {@link GitHubRestClient}, which are also the data of the previous login used as fallback.
+ *
+ * Caches are local to each server. In a Data Center cluster GitHub delivers each event to a single node, so the other
+ * nodes keep their cached data until it expires.
+ *
+ * @see <a href="https://docs.github.com/en/webhooks/webhook-events-and-payloads">GitHub webhook events</a>
+ */
+class GitHubWebhookEvents {
+
+  private static final Logger LOGGER = Loggers.get(GitHubWebhookEvents.class);
+
+  static final String EVENT_MEMBERSHIP = "membership";
+  static final String EVENT_ORGANIZATION = "organization";
+  static final String EVENT_TEAM = "team";
+
+  private final GitHubRestClient gitHubRestClient;
+  private final MembershipCache membershipCache;
+  private final TeamsCache teamsCache;
+  private final GitHubRoster roster;
+
+  GitHubWebhookEvents(GitHubRestClient gitHubRestClient, TeamsCache teamsCache, GitHubRoster roster) {
+    this.gitHubRestClient = gitHubRestClient;
+    this.membershipCache = gitHubRestClient.membershipCache();
+    this.teamsCache = teamsCache;
+    this.roster = roster;
+  }
+
+  /**
+   * @return false if the event does not change any membership or team
+   * @throws com.google.gson.JsonParseException if the payload is not a JSON object
+   */
+  boolean handle(@Nullable String event, String payload) {
+    if (event == null) {
+      return false;
+    }
+    JsonObject json = new JsonParser().parse(payload).getAsJsonObject();
+    String action = string(json, "action");
+    String organization = string(json.get("organization"), "login");
+    if (action == null || organization == null) {
+      return false;
+    }
+    switch (event) {
+      case EVENT_MEMBERSHIP:
+        return handleMembership(json, organization, action);
+      case EVENT_ORGANIZATION:
+        return handleOrganization(json, organization, action);
+      case EVENT_TEAM:
+        return handleTeam(json, organization, action);
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * A user added to or removed from a team
+   */
+  private boolean handleMembership(JsonObject json, String organization, String action) {
+    String login = string(json.get("member"), "login");
+    if (login == null || !"team".equals(string(json, "scope"))) {
+      return false;
+    }
+    LOGGER.debug("Teams of {} in organization '{}' changed ({}), cached teams are evicted", login, organization, action);
+    teamsCache.evict(login);
+    gitHubRestClient.evictUser(login);
+    roster.invalidateTeams(login);
+    return true;
+  }
+
+  private boolean handleOrganization(JsonObject json, String organization, String action) {
+    switch (action) {
+      case "member_added":
+      case "member_removed":
+        String login = string(field(field(json, "membership"), "user"), "login");
+        if (login == null) {
+          return false;
+        }
+        LOGGER.debug("Membership of {} in organization '{}' changed ({}), cached membership and teams are evicted", login, organization, action);
+        membershipCache.evict(organization, login);
+        teamsCache.evict(login);
+        gitHubRestClient.evictUser(login);
+        roster.invalidateMember(organization, login);
+        roster.invalidateTeams(login);
+        return true;
+      case "renamed":
+        String previousLogin = string(field(field(json, "changes"), "login"), "from");
+        if (previousLogin != null) {
+          evictOrganization(previousLogin, action);
+        }
+        evictOrganization(organization, action);
+        return true;
+      case "deleted":
+        evictOrganization(organization, action);
+        return true;
+      default:
+        // invitations do not change memberships until they are accepted
+        return false;
+    }
+  }
+
+  private void evictOrganization(String organization, String action) {
+    LOGGER.debug("Organization '{}' changed ({}), cached memberships and teams are evicted", organization, action);
+    membershipCache.evictOrganization(organization);
+    teamsCache.evictOrganization(organization);
+    gitHubRestClient.evictOrganization(organization);
+    roster.invalidateOrganization(organization);
+  }
+
+  /**
+   * Creation of a team is ignored, as the team has no members yet. A renamed team may have a new slug, which is the
+   * name of its group.
+   */
+  private boolean handleTeam(JsonObject json, String organization, String action) {
+    String slug = string(json.get("team"), "slug");
+    if (slug == null) {
+      return false;
+    }
+    if ("deleted".equals(action)) {
+      teamsCache.evictTeam(organization, slug);
+      gitHubRestClient.evictTeam(organization, slug);
+    } else if ("edited".equals(action) && field(field(json, "changes"), "name") != null) {
+      teamsCache.evictOrganization(organization);
+      gitHubRestClient.evictOrganization(organization);
+    } else {
+      return false;
+    }
+    LOGGER.debug("Team '{}' of organization '{}' changed ({}), cached teams of its members are evicted", slug, organization, action);
+    roster.invalidateOrganizationTeams(organization);
+    return true;
+  }
+
+  @CheckForNull
+  private static JsonElement field(@Nullable JsonElement object, String name) {
+    return object == null || !object.isJsonObject() ? null : object.getAsJsonObject().get(name);
+  }
+
+  @CheckForNull
+  private static String string(@Nullable JsonElement object, String name) {
+    JsonElement value = field(object, name);
+    return value == null || !value.isJsonPrimitive() ? null : value.getAsString();
+  }
+}
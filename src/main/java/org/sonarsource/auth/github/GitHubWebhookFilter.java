@@ -0,0 +1,181 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.google.gson.JsonParseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.web.ServletFilter;
+
+/**
+ * Receives the membership, organization and team events of GitHub webhooks at /authgithub/webhook, and evicts the
+ * cached data they change with {@link GitHubWebhookEvents}. The payload is authenticated by the HMAC-SHA256 signature of
+ * the header X-Hub-Signature-256, computed with the secret of {@link GitHubSettings#webhookSecret()}. Only the caches of
+ * the server receiving the event are evicted.
+ *
+ * A recorded payload can be posted locally with:
+ * <pre>
+ * curl -H "X-GitHub-Event: organization" \
+ *   -H "X-Hub-Signature-256: sha256=$(openssl dgst -sha256 -hmac "$SECRET" -hex &lt; payload.json | sed 's/^.* //')" \
+ *   --data-binary @payload.json http://localhost:9000/authgithub/webhook
+ * </pre>
+ *
+ * @see <a href="https://docs.github.com/en/webhooks/using-webhooks/validating-webhook-deliveries">Validating webhook deliveries</a>
+ */
+public class GitHubWebhookFilter extends ServletFilter {
+
+  private static final Logger LOGGER = Loggers.get(GitHubWebhookFilter.class);
+
+  static final String PATH = "/authgithub/webhook";
+  static final String EVENT_HEADER = "X-GitHub-Event";
+  static final String SIGNATURE_HEADER = "X-Hub-Signature-256";
+  // payloads of membership, organization and team events are a few kilobytes
+  static final int MAX_PAYLOAD_SIZE = 1024 * 1024;
+  private static final String SIGNATURE_PREFIX = "sha256=";
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  private final GitHubSettings settings;
+  private final GitHubWebhookEvents events;
+
+  public GitHubWebhookFilter(GitHubSettings settings, GitHubRestClient gitHubRestClient, GitHubIdentityProvider identityProvider, GitHubRoster roster) {
+    this(settings, new GitHubWebhookEvents(gitHubRestClient, identityProvider.teamsCache(), roster));
+  }
+
+  GitHubWebhookFilter(GitHubSettings settings, GitHubWebhookEvents events) {
+    this.settings = settings;
+    this.events = events;
+  }
+
+  @Override
+  public UrlPattern doGetPattern() {
+    return UrlPattern.create(PATH);
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    // nothing to do
+  }
+
+  /**
+   * The request is never passed to the chain. The status is displayed by GitHub in the recent deliveries of the webhook.
+   */
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    String secret = settings.webhookSecret();
+    if (!settings.isEnabled() || secret.isEmpty()) {
+      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    if (!"POST".equals(request.getMethod())) {
+      response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      return;
+    }
+    byte[] payload = readPayload(request.getInputStream());
+    if (payload == null) {
+      response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+      return;
+    }
+    if (!isSignatureValid(secret, payload, request.getHeader(SIGNATURE_HEADER))) {
+      LOGGER.warn("GitHub webhook rejected, the signature of the payload is missing or invalid");
+      response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+      return;
+    }
+    String event = request.getHeader(EVENT_HEADER);
+    try {
+      if (!events.handle(event, new String(payload, StandardCharsets.UTF_8))) {
+        LOGGER.debug("GitHub webhook event '{}' ignored", event);
+      }
+    } catch (JsonParseException | IllegalStateException e) {
+      LOGGER.warn("GitHub webhook event '{}' is not valid: {}", event, e.getMessage());
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+  }
+
+  @Override
+  public void destroy() {
+    // nothing to do
+  }
+
+  /**
+   * @return null if the payload is too large
+   */
+  @CheckForNull
+  private static byte[] readPayload(InputStream input) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      if (payload.size() + read > MAX_PAYLOAD_SIZE) {
+        return null;
+      }
+      payload.write(buffer, 0, read);
+    }
+    return payload.toByteArray();
+  }
+
+  /**
+   * The comparison takes the same time whatever the number of matching characters
+   */
+  static boolean isSignatureValid(String secret, byte[] payload, @Nullable String signature) {
+    if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+      return false;
+    }
+    byte[] expected = (SIGNATURE_PREFIX + hex(hmac(secret, payload))).getBytes(StandardCharsets.US_ASCII);
+    return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  static byte[] hmac(String secret, byte[] payload) {
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+      return mac.doFinal(payload);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -19,10 +19,9 @@
  */
 package org.sonarsource.auth.github;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import java.lang.reflect.Type;
-import java.util.Collection;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
 
 /**
@@ -30,15 +29,40 @@ import java.util.List;
  */
 public class GsonEmails {
 
+  static final JsonStreams.ValueReader<List<GsonEmail>> READER = new JsonStreams.ArrayReader<>(new JsonStreams.ObjectReader<GsonEmail>() {
+    @Override
+    GsonEmail newObject() {
+      return new GsonEmail();
+    }
+
+    @Override
+    boolean readField(JsonReader reader, String name, GsonEmail email) throws IOException {
+      switch (name) {
+        case "email":
+          email.email = JsonStreams.nextStringOrNull(reader);
+          return true;
+        case "verified":
+          email.verified = JsonStreams.nextBooleanOrFalse(reader);
+          return true;
+        case "primary":
+          email.primary = JsonStreams.nextBooleanOrFalse(reader);
+          return true;
+        default:
+          return false;
+      }
+    }
+  });
+
   private GsonEmails() {
     // Only static methods should be called
   }
 
   public static List<GsonEmail> parse(String json) {
-    Type collectionType = new TypeToken<Collection<GsonEmail>>() {
-    }.getType();
-    Gson gson = new Gson();
-    return gson.fromJson(json, collectionType);
+    return JsonStreams.read(json, READER);
+  }
+
+  public static List<GsonEmail> parse(Reader json) throws IOException {
+    return JsonStreams.read(json, READER);
   }
 
   public static class GsonEmail {
@@ -0,0 +1,116 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
+import javax.annotation.CheckForNull;
+
+/**
+ * Lite representation of JSON responses of GET https://api.github.com/orgs/{org}/installation and
+ * POST https://api.github.com/app/installations/{installation_id}/access_tokens
+ */
+public class GsonInstallations {
+
+  static final JsonStreams.ValueReader<GsonInstallation> INSTALLATION_READER = new JsonStreams.ObjectReader<GsonInstallation>() {
+    @Override
+    GsonInstallation newObject() {
+      return new GsonInstallation();
+    }
+
+    @Override
+    boolean readField(JsonReader reader, String name, GsonInstallation installation) throws IOException {
+      if ("id".equals(name)) {
+        installation.id = JsonStreams.nextStringOrNull(reader);
+        return true;
+      }
+      return false;
+    }
+  };
+
+  static final JsonStreams.ValueReader<GsonInstallationToken> TOKEN_READER = new JsonStreams.ObjectReader<GsonInstallationToken>() {
+    @Override
+    GsonInstallationToken newObject() {
+      return new GsonInstallationToken();
+    }
+
+    @Override
+    boolean readField(JsonReader reader, String name, GsonInstallationToken token) throws IOException {
+      switch (name) {
+        case "token":
+          token.token = JsonStreams.nextStringOrNull(reader);
+          return true;
+        case "expires_at":
+          token.expiresAt = JsonStreams.nextStringOrNull(reader);
+          return true;
+        default:
+          return false;
+      }
+    }
+  };
+
+  private GsonInstallations() {
+    // Only static methods should be called
+  }
+
+  public static GsonInstallation parseInstallation(Reader json) throws IOException {
+    return JsonStreams.read(json, INSTALLATION_READER);
+  }
+
+  public static GsonInstallationToken parseToken(Reader json) throws IOException {
+    return JsonStreams.read(json, TOKEN_READER);
+  }
+
+  public static class GsonInstallation {
+    private String id;
+
+    public GsonInstallation() {
+      // http://stackoverflow.com/a/18645370/229031
+    }
+
+    @CheckForNull
+    public String getId() {
+      return id;
+    }
+  }
+
+  public static class GsonInstallationToken {
+    private String token;
+    private String expiresAt;
+
+    public GsonInstallationToken() {
+      // http://stackoverflow.com/a/18645370/229031
+    }
+
+    @CheckForNull
+    public String getToken() {
+      return token;
+    }
+
+    /**
+     * ISO 8601 date, for example 2016-07-11T22:14:10Z
+     */
+    @CheckForNull
+    public String getExpiresAt() {
+      return expiresAt;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Lite representation of JSON response of GET https://api.github.com/user/orgs
+ */
+public class GsonOrganizations {
+
+  private GsonOrganizations() {
+    // Only static methods should be called
+  }
+
+  static final JsonStreams.ValueReader<List<GsonTeams.GsonOrganization>> READER = new JsonStreams.ArrayReader<>(GsonTeams.ORGANIZATION_READER);
+
+  public static List<GsonTeams.GsonOrganization> parse(String json) {
+    return JsonStreams.read(json, READER);
+  }
+
+  public static List<GsonTeams.GsonOrganization> parse(Reader json) throws IOException {
+    return JsonStreams.read(json, READER);
+  }
+}
@@ -19,10 +19,9 @@
  */
 package org.sonarsource.auth.github;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import java.lang.reflect.Type;
-import java.util.Collection;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
 
 /**
@@ -30,15 +29,53 @@ import java.util.List;
  */
 public class GsonTeams {
 
+  static final JsonStreams.ValueReader<GsonOrganization> ORGANIZATION_READER = new JsonStreams.ObjectReader<GsonOrganization>() {
+    @Override
+    GsonOrganization newObject() {
+      return new GsonOrganization();
+    }
+
+    @Override
+    boolean readField(JsonReader reader, String name, GsonOrganization organization) throws IOException {
+      if ("login".equals(name)) {
+        organization.login = JsonStreams.nextStringOrNull(reader);
+        return true;
+      }
+      return false;
+    }
+  };
+
+  static final JsonStreams.ValueReader<List<GsonTeam>> READER = new JsonStreams.ArrayReader<>(new JsonStreams.ObjectReader<GsonTeam>() {
+    @Override
+    GsonTeam newObject() {
+      return new GsonTeam();
+    }
+
+    @Override
+    boolean readField(JsonReader reader, String name, GsonTeam team) throws IOException {
+      switch (name) {
+        case "slug":
+          team.slug = JsonStreams.nextStringOrNull(reader);
+          return true;
+        case "organization":
+          team.organization = ORGANIZATION_READER.read(reader);
+          return true;
+        default:
+          return false;
+      }
+    }
+  });
+
   private GsonTeams() {
     // Only static methods should be called
   }
 
   public static List<GsonTeam> parse(String json) {
-    Type collectionType = new TypeToken<Collection<GsonTeam>>() {
-    }.getType();
-    Gson gson = new Gson();
-    return gson.fromJson(json, collectionType);
+    return JsonStreams.read(json, READER);
+  }
+
+  public static List<GsonTeam> parse(Reader json) throws IOException {
+    return JsonStreams.read(json, READER);
   }
 
   public static class GsonTeam {
@@ -75,5 +112,9 @@ public class GsonTeams {
     public GsonOrganization(String login) {
       this.login = login;
     }
+
+    public String getLogin() {
+      return login;
+    }
   }
 }
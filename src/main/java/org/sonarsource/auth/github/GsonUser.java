@@ -19,7 +19,10 @@
  */
 package org.sonarsource.auth.github;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
@@ -27,6 +30,34 @@ import javax.annotation.Nullable;
  * Lite representation of JSON response of GET https://api.github.com/user
  */
 public class GsonUser {
+
+  static final JsonStreams.ValueReader<GsonUser> READER = new JsonStreams.ObjectReader<GsonUser>() {
+    @Override
+    GsonUser newObject() {
+      return new GsonUser();
+    }
+
+    @Override
+    boolean readField(JsonReader reader, String name, GsonUser user) throws IOException {
+      switch (name) {
+        case "id":
+          user.id = JsonStreams.nextStringOrNull(reader);
+          return true;
+        case "login":
+          user.login = JsonStreams.nextStringOrNull(reader);
+          return true;
+        case "name":
+          user.name = JsonStreams.nextStringOrNull(reader);
+          return true;
+        case "email":
+          user.email = JsonStreams.nextStringOrNull(reader);
+          return true;
+        default:
+          return false;
+      }
+    }
+  };
+
   private String id;
   private String login;
   private String name;
@@ -69,8 +100,20 @@ public class GsonUser {
     return email;
   }
 
+  static final JsonStreams.ValueReader<List<GsonUser>> LIST_READER = new JsonStreams.ArrayReader<>(READER);
+
   public static GsonUser parse(String json) {
-    Gson gson = new Gson();
-    return gson.fromJson(json, GsonUser.class);
+    return JsonStreams.read(json, READER);
+  }
+
+  public static GsonUser parse(Reader json) throws IOException {
+    return JsonStreams.read(json, READER);
+  }
+
+  /**
+   * Users listed by GET https://api.github.com/orgs/{org}/members or https://api.github.com/orgs/{org}/teams/{team_slug}/members
+   */
+  static List<GsonUser> parseList(Reader json) throws IOException {
+    return JsonStreams.read(json, LIST_READER);
   }
 }
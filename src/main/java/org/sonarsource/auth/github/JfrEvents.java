@@ -0,0 +1,116 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Implementation of {@link FlightRecorder} referencing jdk.jfr. It must only be loaded by {@link FlightRecorder}, once
+ * jdk.jfr is known to be available.
+ */
+final class JfrEvents implements FlightRecorder.Factory {
+
+  static final String REQUEST_EVENT = "org.sonarsource.auth.github.Request";
+  static final String PHASE_EVENT = "org.sonarsource.auth.github.LoginPhase";
+
+  // the state of the recordings is read from the event types, so that no event is allocated when they are disabled
+  private final EventType requestEventType = EventType.getEventType(RequestEvent.class);
+  private final EventType phaseEventType = EventType.getEventType(PhaseEvent.class);
+
+  @Override
+  public FlightRecorder.RequestEvent beginRequest(String endpoint, String urlTemplate) {
+    if (!requestEventType.isEnabled()) {
+      return FlightRecorder.NO_REQUEST_EVENT;
+    }
+    RequestEvent event = new RequestEvent();
+    event.endpoint = endpoint;
+    event.urlTemplate = urlTemplate;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public FlightRecorder.PhaseEvent beginPhase(String phase) {
+    if (!phaseEventType.isEnabled()) {
+      return FlightRecorder.NO_PHASE_EVENT;
+    }
+    PhaseEvent event = new PhaseEvent();
+    event.phase = phase;
+    event.begin();
+    return event;
+  }
+
+  @Name(REQUEST_EVENT)
+  @Label("GitHub Request")
+  @Description("Request sent to the GitHub API during a login")
+  @Category({"SonarQube", "GitHub Authentication"})
+  static class RequestEvent extends Event implements FlightRecorder.RequestEvent {
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("URL Template")
+    String urlTemplate;
+
+    @Label("Status Code")
+    @Description("0 when no response was received")
+    int statusCode;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Override
+    public void commit(int statusCode, long bytesRead) {
+      end();
+      if (shouldCommit()) {
+        this.statusCode = statusCode;
+        this.bytesRead = bytesRead;
+        commit();
+      }
+    }
+  }
+
+  @Name(PHASE_EVENT)
+  @Label("GitHub Login Phase")
+  @Description("Phase of a login with GitHub, which may span several threads")
+  @Category({"SonarQube", "GitHub Authentication"})
+  static class PhaseEvent extends Event implements FlightRecorder.PhaseEvent {
+    @Label("Phase")
+    String phase;
+
+    @Label("Success")
+    boolean success;
+
+    @Override
+    public void commit(boolean success) {
+      end();
+      if (shouldCommit()) {
+        this.success = success;
+        commit();
+      }
+    }
+  }
+}
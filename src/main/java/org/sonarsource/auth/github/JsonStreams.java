@@ -0,0 +1,142 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.CheckForNull;
+
+/**
+ * Streaming parsing of the GitHub responses. Only the fields used by the plugin are read, the others are skipped
+ * without being materialized. Readers are stateless and shared by all the threads. Responses are never written, so
+ * readers are not Gson type adapters.
+ */
+final class JsonStreams {
+
+  private JsonStreams() {
+    // Only static methods should be called
+  }
+
+  /**
+   * As {@link com.google.gson.Gson#fromJson(Reader, Class)}, the parser is lenient
+   */
+  @CheckForNull
+  static <T> T read(Reader reader, ValueReader<T> valueReader) throws IOException {
+    JsonReader jsonReader = new JsonReader(reader);
+    jsonReader.setLenient(true);
+    try {
+      return valueReader.read(jsonReader);
+    } catch (MalformedJsonException | IllegalStateException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+
+  @CheckForNull
+  static <T> T read(String json, ValueReader<T> valueReader) {
+    try {
+      return read(new StringReader(json), valueReader);
+    } catch (IOException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+
+  @CheckForNull
+  static String nextStringOrNull(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  static boolean nextBooleanOrFalse(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return false;
+    }
+    return reader.nextBoolean();
+  }
+
+  @FunctionalInterface
+  interface ValueReader<T> {
+    /**
+     * @return null if the value is null
+     */
+    @CheckForNull
+    T read(JsonReader reader) throws IOException;
+  }
+
+  abstract static class ObjectReader<T> implements ValueReader<T> {
+    @Override
+    public T read(JsonReader reader) throws IOException {
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        return null;
+      }
+      T object = newObject();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (!readField(reader, name, object)) {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return object;
+    }
+
+    abstract T newObject();
+
+    /**
+     * @return false if the field is not read, so that its value is skipped
+     */
+    abstract boolean readField(JsonReader reader, String name, T object) throws IOException;
+  }
+
+  static class ArrayReader<T> implements ValueReader<List<T>> {
+    private final ValueReader<T> elementReader;
+
+    ArrayReader(ValueReader<T> elementReader) {
+      this.elementReader = elementReader;
+    }
+
+    @Override
+    public List<T> read(JsonReader reader) throws IOException {
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        return null;
+      }
+      List<T> elements = new ArrayList<>();
+      reader.beginArray();
+      while (reader.hasNext()) {
+        elements.add(elementReader.read(reader));
+      }
+      reader.endArray();
+      return elements;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import javax.annotation.CheckForNull;
+
+/**
+ * Bounded map evicting the least recently used entries. Keys are spread over several independently locked segments,
+ * so that concurrent logins seldom contend for the same lock.
+ */
+class LruCache<K, V> {
+
+  private static final int SEGMENTS = 16;
+
+  private final Segment<K, V>[] segments;
+
+  @SuppressWarnings("unchecked")
+  LruCache(int maxSize) {
+    int segmentCount = Math.max(1, Math.min(SEGMENTS, maxSize));
+    int segmentSize = Math.max(1, maxSize / segmentCount);
+    this.segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment<>(segmentSize);
+    }
+  }
+
+  @CheckForNull
+  V get(K key) {
+    Segment<K, V> segment = segment(key);
+    synchronized (segment) {
+      return segment.get(key);
+    }
+  }
+
+  void put(K key, V value) {
+    Segment<K, V> segment = segment(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  void remove(K key) {
+    Segment<K, V> segment = segment(key);
+    synchronized (segment) {
+      segment.remove(key);
+    }
+  }
+
+  void removeIf(Predicate<K> predicate) {
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        segment.keySet().removeIf(predicate);
+      }
+    }
+  }
+
+  void removeValuesIf(Predicate<V> predicate) {
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        segment.values().removeIf(predicate);
+      }
+    }
+  }
+
+  void clear() {
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * Snapshot of the values, which does not change the access order
+   */
+  List<V> values() {
+    List<V> values = new ArrayList<>();
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        values.addAll(segment.values());
+      }
+    }
+    return values;
+  }
+
+  int size() {
+    int size = 0;
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  private Segment<K, V> segment(K key) {
+    int hash = key.hashCode();
+    // spread the high bits, as in java.util.HashMap
+    hash ^= hash >>> 16;
+    return segments[(hash & Integer.MAX_VALUE) % segments.length];
+  }
+
+  private static class Segment<K, V> extends LinkedHashMap<K, V> {
+    private final int maxSize;
+
+    Segment(int maxSize) {
+      super(16, 0.75F, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > maxSize;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.Locale;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.System2;
+
+/**
+ * Organization membership results, kept for the time configured for positive and negative results.
+ * Organization names and logins are case-insensitive at GitHub.
+ */
+class MembershipCache {
+
+  static final int MAX_SIZE = 10_000;
+
+  private final GitHubSettings settings;
+  private final System2 system2;
+  private final LruCache<String, Entry> entries = new LruCache<>(MAX_SIZE);
+
+  MembershipCache(GitHubSettings settings, System2 system2) {
+    this.settings = settings;
+    this.system2 = system2;
+  }
+
+  /**
+   * @return null if the membership is not known or expired
+   */
+  @CheckForNull
+  Boolean get(String organization, String login) {
+    String key = key(organization, login);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresAt <= system2.now()) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.member;
+  }
+
+  void put(String organization, String login, boolean member) {
+    long ttlInSeconds = member ? settings.membershipCachePositiveTtl() : settings.membershipCacheNegativeTtl();
+    if (ttlInSeconds > 0) {
+      entries.put(key(organization, login), new Entry(member, system2.now() + ttlInSeconds * 1_000L));
+    }
+  }
+
+  void evict(String organization, String login) {
+    entries.remove(key(organization, login));
+  }
+
+  void evictLogin(String login) {
+    String suffix = "/" + login.toLowerCase(Locale.ENGLISH);
+    entries.removeIf(key -> key.endsWith(suffix));
+  }
+
+  void evictOrganization(String organization) {
+    String prefix = organization.toLowerCase(Locale.ENGLISH) + "/";
+    entries.removeIf(key -> key.startsWith(prefix));
+  }
+
+  void clear() {
+    entries.clear();
+  }
+
+  private static String key(String organization, String login) {
+    return organization.toLowerCase(Locale.ENGLISH) + "/" + login.toLowerCase(Locale.ENGLISH);
+  }
+
+  private static class Entry {
+    private final boolean member;
+    private final long expiresAt;
+
+    Entry(boolean member, long expiresAt) {
+      this.member = member;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
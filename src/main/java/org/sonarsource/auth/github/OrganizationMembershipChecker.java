@@ -0,0 +1,183 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+import static org.sonarsource.auth.github.GitHubSettings.MEMBERSHIP_STRATEGY_PARALLEL;
+import static org.sonarsource.auth.github.GitHubSettings.MEMBERSHIP_STRATEGY_SEQUENTIAL;
+import static org.sonarsource.auth.github.GitHubSettings.MEMBERSHIP_STRATEGY_USER_ORGANIZATIONS;
+
+/**
+ * Checks that a login is a member of at least one of the configured organizations.
+ *
+ * Organizations are checked in decreasing order of observed hit rate, so that the organization
+ * the users most often belong to is tried first.
+ */
+class OrganizationMembershipChecker {
+
+  private final GitHubSettings settings;
+  private final GitHubRestClient gitHubRestClient;
+  private final GitHubExecutor executor;
+  private final GitHubRoster roster;
+  private final GitHubAppTokens appTokens;
+  private final ConcurrentMap<String, HitRate> hitRates = new ConcurrentHashMap<>();
+
+  OrganizationMembershipChecker(GitHubSettings settings, GitHubRestClient gitHubRestClient, GitHubExecutor executor, GitHubRoster roster,
+    GitHubAppTokens appTokens) {
+    this.settings = settings;
+    this.gitHubRestClient = gitHubRestClient;
+    this.executor = executor;
+    this.roster = roster;
+    this.appTokens = appTokens;
+  }
+
+  /**
+   * Memberships found in the {@link GitHubRoster} are accepted immediately. Otherwise the checks are requested by the pool
+   * of {@link GitHubExecutor}, the calling thread does not wait for them.
+   */
+  CompletableFuture<Boolean> isMemberOfAny(GitHubConfiguration configuration, OAuth20Service scribe, OAuth2AccessToken accessToken, String login,
+    Deadline deadline) {
+    for (String organization : configuration.organizations()) {
+      if (roster.isMember(organization, login)) {
+        return CompletableFuture.completedFuture(true);
+      }
+    }
+    String strategy = settings.membershipStrategy();
+    switch (strategy) {
+      case MEMBERSHIP_STRATEGY_SEQUENTIAL:
+        return isMemberOfAnySequentially(scribe, accessToken, orderByHitRate(configuration.organizations()), 0, login, deadline);
+      case MEMBERSHIP_STRATEGY_PARALLEL:
+        return isMemberOfAnyConcurrently(scribe, accessToken, orderByHitRate(configuration.organizations()), login, deadline);
+      case MEMBERSHIP_STRATEGY_USER_ORGANIZATIONS:
+        return isMemberOfAnyUserOrganization(configuration, scribe, accessToken, login, deadline);
+      default:
+        throw new IllegalStateException(format("Organization membership strategy not supported : %s", strategy));
+    }
+  }
+
+  List<String> orderByHitRate(String[] organizations) {
+    List<String> ordered = new ArrayList<>(Arrays.asList(organizations));
+    // stable sort: organizations that were never checked keep the configured order
+    ordered.sort(Comparator.comparingDouble((String organization) -> hitRate(organization).rate()).reversed());
+    return ordered;
+  }
+
+  private CompletableFuture<Boolean> isMemberOfAnySequentially(OAuth20Service scribe, OAuth2AccessToken accessToken, List<String> organizations,
+    int index, String login, Deadline deadline) {
+    if (index == organizations.size()) {
+      return CompletableFuture.completedFuture(false);
+    }
+    return executor.submit(() -> isMember(scribe, accessToken, organizations.get(index), login, deadline))
+      .thenCompose(member -> member
+        ? CompletableFuture.completedFuture(true)
+        : isMemberOfAnySequentially(scribe, accessToken, organizations, index + 1, login, deadline));
+  }
+
+  /**
+   * Sends all the checks at once and accepts as soon as one of them confirms the membership. The checks which have
+   * not started yet are then cancelled. A failed check is only reported if no membership could be confirmed.
+   */
+  private CompletableFuture<Boolean> isMemberOfAnyConcurrently(OAuth20Service scribe, OAuth2AccessToken accessToken, List<String> organizations,
+    String login, Deadline deadline) {
+    if (organizations.isEmpty()) {
+      return CompletableFuture.completedFuture(false);
+    }
+    CompletableFuture<Boolean> result = new CompletableFuture<>();
+    AtomicInteger pending = new AtomicInteger(organizations.size());
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<CompletableFuture<Boolean>> checks = new ArrayList<>(organizations.size());
+    for (String organization : organizations) {
+      CompletableFuture<Boolean> check = executor.submit(() -> isMember(scribe, accessToken, organization, login, deadline));
+      checks.add(check);
+      check.whenComplete((member, error) -> {
+        if (error != null) {
+          failure.compareAndSet(null, error);
+        } else if (member) {
+          result.complete(true);
+        }
+        if (pending.decrementAndGet() == 0) {
+          Throwable firstFailure = failure.get();
+          if (firstFailure == null) {
+            result.complete(false);
+          } else {
+            result.completeExceptionally(firstFailure);
+          }
+        }
+      });
+    }
+    return result.whenComplete((member, error) -> checks.forEach(check -> check.cancel(true)));
+  }
+
+  /**
+   * A single paginated request, whatever the number of configured organizations
+   */
+  private CompletableFuture<Boolean> isMemberOfAnyUserOrganization(GitHubConfiguration configuration, OAuth20Service scribe, OAuth2AccessToken accessToken,
+    String login, Deadline deadline) {
+    return executor.submit(() -> gitHubRestClient.getOrganizations(scribe, accessToken, login, deadline).stream()
+      .anyMatch(organization -> configuration.isOneOfOrganizations(organization.getLogin())));
+  }
+
+  /**
+   * The installation token of the GitHub App, when available, does not consume the rate limit of the user
+   */
+  private boolean isMember(OAuth20Service scribe, OAuth2AccessToken accessToken, String organization, String login, Deadline deadline)
+    throws IOException, ExecutionException, InterruptedException {
+    OAuth2AccessToken appToken = appTokens.token(organization, deadline);
+    boolean member = gitHubRestClient.isOrganizationMember(scribe, appToken == null ? accessToken : appToken, organization, login, deadline);
+    hitRate(organization).record(member);
+    return member;
+  }
+
+  private HitRate hitRate(String organization) {
+    return hitRates.computeIfAbsent(organization, o -> new HitRate());
+  }
+
+  private static class HitRate {
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    void record(boolean hit) {
+      checks.increment();
+      if (hit) {
+        hits.increment();
+      }
+    }
+
+    double rate() {
+      // Laplace smoothing, so that an organization with no history is neither first nor last
+      return (hits.sum() + 1D) / (checks.sum() + 2D);
+    }
+  }
+}
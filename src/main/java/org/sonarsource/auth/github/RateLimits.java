@@ -0,0 +1,120 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.Response;
+import java.util.OptionalLong;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.System2;
+
+import static org.sonarsource.auth.github.GitHubRestClient.header;
+
+/**
+ * Remaining requests of each user or GitHub App installation on each GitHub host, as returned by the headers
+ * X-RateLimit-*. The rate limit of a user is shared by all their access tokens, so it is still known at their next login.
+ *
+ * @see <a href="https://developer.github.com/v3/#rate-limiting">Rate limiting</a>
+ */
+class RateLimits {
+
+  static final int MAX_SIZE = 10_000;
+
+  private final System2 system2;
+  private final LruCache<String, RateLimit> rateLimits = new LruCache<>(MAX_SIZE);
+
+  RateLimits(System2 system2) {
+    this.system2 = system2;
+  }
+
+  void update(String host, String owner, Response response) {
+    RateLimit rateLimit = RateLimit.of(response);
+    if (rateLimit != null) {
+      rateLimits.put(key(host, owner), rateLimit);
+    }
+  }
+
+  /**
+   * @return false if the rate limit is not known or has been reset since the last response
+   */
+  boolean isLow(String host, String owner, long reserve) {
+    if (reserve <= 0) {
+      return false;
+    }
+    RateLimit rateLimit = rateLimits.get(key(host, owner));
+    return rateLimit != null && !rateLimit.isReset(system2.now()) && rateLimit.remaining <= reserve;
+  }
+
+  /**
+   * Lowest number of remaining requests among the owners whose rate limit is not reset yet
+   */
+  OptionalLong lowestRemaining() {
+    long now = system2.now();
+    return rateLimits.values().stream()
+      .filter(rateLimit -> !rateLimit.isReset(now))
+      .mapToLong(rateLimit -> rateLimit.remaining)
+      .min();
+  }
+
+  private static String key(String host, String owner) {
+    return host + ' ' + owner;
+  }
+
+  static class RateLimit {
+    private final long remaining;
+    private final long resetAt;
+
+    RateLimit(long remaining, long resetAt) {
+      this.remaining = remaining;
+      this.resetAt = resetAt;
+    }
+
+    long getRemaining() {
+      return remaining;
+    }
+
+    /**
+     * In milliseconds since epoch
+     */
+    long getResetAt() {
+      return resetAt;
+    }
+
+    boolean isReset(long now) {
+      return resetAt <= now;
+    }
+
+    /**
+     * @return null if the response does not have rate limit headers, for example when rate limiting is disabled on GitHub Enterprise
+     */
+    @CheckForNull
+    static RateLimit of(Response response) {
+      String remaining = header(response, "X-RateLimit-Remaining");
+      String reset = header(response, "X-RateLimit-Reset");
+      if (remaining == null || reset == null) {
+        return null;
+      }
+      try {
+        return new RateLimit(Long.parseLong(remaining.trim()), Long.parseLong(reset.trim()) * 1_000L);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+
+/**
+ * Immutable index of the members of some organizations and of their teams, keyed by lower-case logins, as
+ * organizations and logins are case-insensitive at GitHub. Team objects are shared by all their members.
+ */
+final class RosterIndex {
+
+  private final long builtAt;
+  private final Set<String> organizations;
+  private final Map<String, Member> members;
+
+  private RosterIndex(long builtAt, Set<String> organizations, Map<String, Member> members) {
+    this.builtAt = builtAt;
+    this.organizations = organizations;
+    this.members = members;
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  long builtAt() {
+    return builtAt;
+  }
+
+  boolean isIndexed(String organization) {
+    return organizations.contains(lowerCase(organization));
+  }
+
+  int size() {
+    return members.size();
+  }
+
+  /**
+   * Only meaningful if the organization is indexed
+   */
+  boolean isMember(String organization, String login) {
+    Member member = members.get(lowerCase(login));
+    return member != null && member.organizations.contains(lowerCase(organization));
+  }
+
+  /**
+   * @return the teams of the user in the indexed organizations, null if the user is not a member of any of them
+   */
+  @CheckForNull
+  List<GsonTeams.GsonTeam> teams(String login) {
+    Member member = members.get(lowerCase(login));
+    return member == null ? null : member.teams;
+  }
+
+  private static String lowerCase(String s) {
+    return s.toLowerCase(Locale.ENGLISH);
+  }
+
+  private static final class Member {
+    private final Set<String> organizations = new HashSet<>(2);
+    private List<GsonTeams.GsonTeam> teams = new ArrayList<>();
+  }
+
+  static final class Builder {
+    private final Set<String> organizations = new HashSet<>();
+    private final Map<String, Member> members = new HashMap<>();
+
+    private Builder() {
+      // use RosterIndex.builder()
+    }
+
+    /**
+     * @param organization the organization as named by GitHub, which is the prefix of the groups of its teams
+     */
+    Builder addOrganization(GsonTeams.GsonOrganization organization, List<GsonUser> organizationMembers, Map<GsonTeams.GsonTeam, List<GsonUser>> teamMembers) {
+      String organizationKey = lowerCase(organization.getLogin());
+      organizations.add(organizationKey);
+      for (GsonUser user : organizationMembers) {
+        member(user).organizations.add(organizationKey);
+      }
+      for (Map.Entry<GsonTeams.GsonTeam, List<GsonUser>> entry : teamMembers.entrySet()) {
+        GsonTeams.GsonTeam team = new GsonTeams.GsonTeam(entry.getKey().getId(), organization);
+        for (GsonUser user : entry.getValue()) {
+          member(user).teams.add(team);
+        }
+      }
+      return this;
+    }
+
+    private Member member(GsonUser user) {
+      return members.computeIfAbsent(lowerCase(user.getLogin()), login -> new Member());
+    }
+
+    RosterIndex build(long builtAt) {
+      Map<String, Member> indexedMembers = new HashMap<>(members.size() * 4 / 3 + 1);
+      for (Map.Entry<String, Member> entry : members.entrySet()) {
+        Member member = entry.getValue();
+        // members of a team are members of the organization, except when the listing changed in between
+        if (!member.organizations.isEmpty()) {
+          member.teams = member.teams.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(member.teams));
+          indexedMembers.put(entry.getKey(), member);
+        }
+      }
+      return new RosterIndex(builtAt, Collections.unmodifiableSet(new HashSet<>(organizations)), Collections.unmodifiableMap(indexedMembers));
+    }
+  }
+}
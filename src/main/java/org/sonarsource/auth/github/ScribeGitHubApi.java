@@ -24,7 +24,10 @@ import com.github.scribejava.core.extractors.OAuth2AccessTokenExtractor;
 import com.github.scribejava.core.extractors.TokenExtractor;
 import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.github.scribejava.core.model.OAuthConfig;
+import com.github.scribejava.core.model.OAuthConstants;
 import com.github.scribejava.core.model.Verb;
+import com.github.scribejava.core.utils.OAuthEncoder;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import org.sonar.api.server.ServerSide;
 
@@ -45,12 +48,12 @@ public class ScribeGitHubApi extends DefaultApi20 {
 
   @Override
   public String getAccessTokenEndpoint() {
-    return settings.webURL() + "login/oauth/access_token";
+    return settings.configuration().accessTokenUrl();
   }
 
   @Override
   protected String getAuthorizationBaseUrl() {
-    return settings.webURL() + "login/oauth/authorize";
+    return settings.configuration().authorizationUrl();
   }
 
   @Override
@@ -58,13 +61,22 @@ public class ScribeGitHubApi extends DefaultApi20 {
     return OAuth2AccessTokenExtractor.instance();
   }
 
+  /**
+   * The state can either be part of the configuration or, when the service is shared by several requests, be given
+   * as an additional parameter. In both cases it is the last parameter of the URL.
+   */
   @Override
   public String getAuthorizationUrl(OAuthConfig config, Map<String, String> additionalParams) {
     requireNonNull(config.getCallback(), "URL for callback should not be null.");
     requireNonNull(config.getApiKey(), "ApiKey should not be null.");
     requireNonNull(config.getScope(), "Scope should not be null.");
-    requireNonNull(config.getState(), "State should not be null.");
-    return super.getAuthorizationUrl(config, additionalParams);
+    if (config.getState() != null || additionalParams == null || !additionalParams.containsKey(OAuthConstants.STATE)) {
+      requireNonNull(config.getState(), "State should not be null.");
+      return super.getAuthorizationUrl(config, additionalParams);
+    }
+    Map<String, String> params = new LinkedHashMap<>(additionalParams);
+    String state = requireNonNull(params.remove(OAuthConstants.STATE), "State should not be null.");
+    return super.getAuthorizationUrl(config, params) + "&" + OAuthConstants.STATE + "=" + OAuthEncoder.encode(state);
   }
 
 }
@@ -0,0 +1,118 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.builder.ServiceBuilder;
+import com.github.scribejava.core.httpclient.HttpClient;
+import com.github.scribejava.core.httpclient.HttpClientConfig;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import org.sonar.api.server.ServerSide;
+
+/**
+ * Scribe services are immutable and thread-safe, so they are built once per client ID, secret, callback URL and scope
+ * rather than on each request. As all these values, as well as the HTTP transport, are part of the key, a change of settings
+ * results in a new service. Services built for outdated settings are dropped when the cache is full.
+ */
+@ServerSide
+public class ScribeServiceCache {
+
+  static final int MAX_SIZE = 16;
+  // services of the server only sign requests, no user is redirected to them
+  private static final String SERVER_CALLBACK_URL = "oob";
+
+  private final ScribeGitHubApi scribeApi;
+  private final GitHubHttpTransport httpTransport;
+  private final ConcurrentMap<Key, OAuth20Service> services = new ConcurrentHashMap<>();
+
+  public ScribeServiceCache(ScribeGitHubApi scribeApi, GitHubHttpTransport httpTransport) {
+    this.scribeApi = scribeApi;
+    this.httpTransport = httpTransport;
+  }
+
+  OAuth20Service get(String clientId, String clientSecret, String callbackUrl, @Nullable String scope) {
+    HttpClient httpClient = httpTransport.httpClient();
+    HttpClientConfig httpClientConfig = httpTransport.defaultHttpClientConfig();
+    Key key = new Key(clientId, clientSecret, callbackUrl, scope, httpClient, httpClientConfig);
+    OAuth20Service service = services.get(key);
+    if (service != null) {
+      return service;
+    }
+    if (services.size() >= MAX_SIZE) {
+      services.clear();
+    }
+    return services.computeIfAbsent(key, k -> build(clientId, clientSecret, callbackUrl, scope, httpClient, httpClientConfig));
+  }
+
+  /**
+   * Service sending the requests of the server itself, authenticated by a service token or by the GitHub App
+   */
+  OAuth20Service getForServer(String clientId, String clientSecret) {
+    return get(clientId, clientSecret, SERVER_CALLBACK_URL, null);
+  }
+
+  void clear() {
+    services.clear();
+  }
+
+  int size() {
+    return services.size();
+  }
+
+  private OAuth20Service build(String clientId, String clientSecret, String callbackUrl, @Nullable String scope, @Nullable HttpClient httpClient,
+    @Nullable HttpClientConfig httpClientConfig) {
+    ServiceBuilder builder = new ServiceBuilder(clientId)
+      .apiSecret(clientSecret)
+      .callback(callbackUrl);
+    if (scope != null) {
+      builder.scope(scope);
+    }
+    if (httpClient != null) {
+      builder.httpClient(httpClient);
+    }
+    if (httpClientConfig != null) {
+      builder.httpClientConfig(httpClientConfig);
+    }
+    return builder.build(scribeApi);
+  }
+
+  private static final class Key {
+    private final Object[] values;
+    private final int hashCode;
+
+    Key(String clientId, String clientSecret, String callbackUrl, @Nullable String scope, @Nullable HttpClient httpClient, @Nullable HttpClientConfig httpClientConfig) {
+      this.values = new Object[] {clientId, clientSecret, callbackUrl, scope, httpClient, httpClientConfig};
+      this.hashCode = Arrays.hashCode(values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Shares the result of a GitHub request between the concurrent callers asking for the same key. The first caller sends
+ * the request from its own thread, the other ones wait for its result.
+ *
+ * A caller which stops waiting (deadline, cancellation) does not fail the other callers: they send the request again.
+ */
+final class SingleFlight {
+
+  private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+  @SuppressWarnings("unchecked")
+  <T> T call(String key, Deadline deadline, GitHubExecutor.GitHubCall<T> call) throws IOException, ExecutionException, InterruptedException {
+    while (true) {
+      CompletableFuture<Object> flight = new CompletableFuture<>();
+      CompletableFuture<Object> pending = inFlight.putIfAbsent(key, flight);
+      if (pending == null) {
+        return lead(key, flight, call);
+      }
+      try {
+        // a caller cancelling its future must not cancel the flight shared with the other callers
+        return (T) deadline.await(pending.thenApply(Function.identity()));
+      } catch (Deadline.ExceededException | CancellationException | InterruptedIOException | ExecutionException e) {
+        if (!pending.isCompletedExceptionally() || !isAbandoned(e) || deadline.isExpired() || Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+        // the first caller gave up, the request is sent again
+      }
+    }
+  }
+
+  /**
+   * Failures which are specific to the first caller, not to the request
+   */
+  private static boolean isAbandoned(Exception e) {
+    return !(e instanceof ExecutionException) || e.getCause() instanceof InterruptedException;
+  }
+
+  int size() {
+    return inFlight.size();
+  }
+
+  private <T> T lead(String key, CompletableFuture<Object> flight, GitHubExecutor.GitHubCall<T> call) throws IOException, ExecutionException, InterruptedException {
+    try {
+      T result = call.call();
+      flight.complete(result);
+      return result;
+    } catch (IOException | ExecutionException | InterruptedException | RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+}
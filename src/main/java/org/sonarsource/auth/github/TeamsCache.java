@@ -0,0 +1,144 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Teams fetched at the previous login of each user. Cached teams younger than {@link GitHubSettings#teamsCacheMaxAge()}
+ * are returned immediately and refreshed in the background, so that the next login gets the changes.
+ */
+class TeamsCache {
+
+  private static final Logger LOGGER = Loggers.get(TeamsCache.class);
+
+  static final int MAX_SIZE = 10_000;
+
+  private final GitHubSettings settings;
+  private final System2 system2;
+  private final LruCache<String, Entry> entries = new LruCache<>(MAX_SIZE);
+  private final Map<String, CompletableFuture<List<GsonTeams.GsonTeam>>> refreshes = new ConcurrentHashMap<>();
+
+  TeamsCache(GitHubSettings settings, System2 system2) {
+    this.settings = settings;
+    this.system2 = system2;
+  }
+
+  /**
+   * Background refreshes are not bound to the deadline of the login which triggered them
+   */
+  CompletableFuture<List<GsonTeams.GsonTeam>> get(String login, Deadline deadline, Fetcher fetcher) {
+    long maxAgeInMs = settings.teamsCacheMaxAge() * 1_000L;
+    if (maxAgeInMs == 0L) {
+      return fetcher.fetch(deadline);
+    }
+    String key = login.toLowerCase(Locale.ENGLISH);
+    Entry entry = entries.get(key);
+    if (entry != null && system2.now() - entry.fetchedAt < maxAgeInMs) {
+      refresh(key, () -> fetcher.fetch(Deadline.NONE)).whenComplete((teams, failure) -> {
+        if (failure != null) {
+          LOGGER.debug("Fail to refresh teams of " + login, failure);
+        }
+      });
+      return CompletableFuture.completedFuture(entry.teams);
+    }
+    // a caller cancelling its future must not cancel the request shared with the other callers
+    return refresh(key, () -> fetcher.fetch(deadline)).thenApply(Function.identity());
+  }
+
+  void evict(String login) {
+    entries.remove(login.toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Evicts the users who belong to the team, as its members are not known
+   */
+  void evictTeam(String organization, String slug) {
+    entries.removeValuesIf(entry -> entry.teams.stream()
+      .anyMatch(team -> organization.equalsIgnoreCase(team.getOrganizationId()) && slug.equalsIgnoreCase(team.getId())));
+  }
+
+  /**
+   * Evicts the users who belong to at least one team of the organization
+   */
+  void evictOrganization(String organization) {
+    entries.removeValuesIf(entry -> entry.teams.stream().anyMatch(team -> organization.equalsIgnoreCase(team.getOrganizationId())));
+  }
+
+  void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Concurrent logins of the same user share the same request
+   */
+  private CompletableFuture<List<GsonTeams.GsonTeam>> refresh(String key, Supplier<CompletableFuture<List<GsonTeams.GsonTeam>>> fetch) {
+    CompletableFuture<List<GsonTeams.GsonTeam>> pending = refreshes.get(key);
+    if (pending != null) {
+      return pending;
+    }
+    CompletableFuture<List<GsonTeams.GsonTeam>> placeholder = new CompletableFuture<>();
+    pending = refreshes.putIfAbsent(key, placeholder);
+    if (pending != null) {
+      return pending;
+    }
+    long fetchedAt = system2.now();
+    fetch.get().whenComplete((teams, failure) -> {
+      refreshes.remove(key, placeholder);
+      if (failure != null) {
+        placeholder.completeExceptionally(failure);
+      } else if (teams == null) {
+        // teams were not requested, see GitHubRestClient#getTeams()
+        placeholder.complete(null);
+      } else {
+        List<GsonTeams.GsonTeam> unmodifiableTeams = unmodifiableList(teams);
+        entries.put(key, new Entry(unmodifiableTeams, fetchedAt));
+        placeholder.complete(unmodifiableTeams);
+      }
+    });
+    return placeholder;
+  }
+
+  @FunctionalInterface
+  interface Fetcher {
+    CompletableFuture<List<GsonTeams.GsonTeam>> fetch(Deadline deadline);
+  }
+
+  private static class Entry {
+    private final List<GsonTeams.GsonTeam> teams;
+    private final long fetchedAt;
+
+    Entry(List<GsonTeams.GsonTeam> teams, long fetchedAt) {
+      this.teams = teams;
+      this.fetchedAt = fetchedAt;
+    }
+  }
+}
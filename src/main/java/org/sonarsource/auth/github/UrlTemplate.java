@@ -0,0 +1,158 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * URL with {@code {name}} placeholders, parsed once. Values are percent-encoded as path segments (RFC 3986), and the
+ * URL is built in a {@link StringBuilder} sized to the final length, so that expanding it allocates the builder, its
+ * buffer and the resulting string, but no intermediate string or buffer growth.
+ */
+final class UrlTemplate {
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private final String template;
+  private final String[] literals;
+  private final int literalsLength;
+
+  private UrlTemplate(String template, String[] literals) {
+    this.template = template;
+    this.literals = literals;
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.literalsLength = length;
+  }
+
+  /**
+   * @param base prepended to the template, not encoded
+   * @param template relative URL, for example {@code orgs/{org}/members/{username}}
+   */
+  static UrlTemplate compile(String base, String template) {
+    List<String> literals = new ArrayList<>();
+    StringBuilder literal = new StringBuilder(base);
+    int index = 0;
+    while (index < template.length()) {
+      int start = template.indexOf('{', index);
+      if (start < 0) {
+        literal.append(template, index, template.length());
+        break;
+      }
+      int end = template.indexOf('}', start);
+      if (end < 0) {
+        throw new IllegalArgumentException("Unclosed placeholder in URL template: " + template);
+      }
+      literal.append(template, index, start);
+      literals.add(literal.toString());
+      literal.setLength(0);
+      index = end + 1;
+    }
+    literals.add(literal.toString());
+    return new UrlTemplate(template, literals.toArray(new String[0]));
+  }
+
+  /**
+   * The template without the base, used to group the requests of an endpoint
+   */
+  String template() {
+    return template;
+  }
+
+  int variables() {
+    return literals.length - 1;
+  }
+
+  String expand(String value) {
+    checkVariables(1);
+    StringBuilder url = new StringBuilder(literalsLength + encodedLength(value));
+    url.append(literals[0]);
+    appendEncoded(url, value);
+    return url.append(literals[1]).toString();
+  }
+
+  String expand(String first, String second) {
+    checkVariables(2);
+    StringBuilder url = new StringBuilder(literalsLength + encodedLength(first) + encodedLength(second));
+    url.append(literals[0]);
+    appendEncoded(url, first);
+    url.append(literals[1]);
+    appendEncoded(url, second);
+    return url.append(literals[2]).toString();
+  }
+
+  private void checkVariables(int count) {
+    if (variables() != count) {
+      throw new IllegalArgumentException("URL template " + template + " expects " + variables() + " values, got " + count);
+    }
+  }
+
+  private static int encodedLength(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (isUnreserved(c)) {
+        length++;
+      } else if (c < 0x80) {
+        length += 3;
+      } else {
+        // rare, the exact length is the one of the UTF-8 bytes
+        return length + 3 * value.substring(i).getBytes(StandardCharsets.UTF_8).length;
+      }
+    }
+    return length;
+  }
+
+  private static void appendEncoded(StringBuilder url, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (isUnreserved(c)) {
+        url.append(c);
+      } else if (c < 0x80) {
+        appendPercentEncoded(url, c);
+      } else {
+        for (byte b : value.substring(i).getBytes(StandardCharsets.UTF_8)) {
+          appendPercentEncoded(url, b & 0xFF);
+        }
+        return;
+      }
+    }
+  }
+
+  private static void appendPercentEncoded(StringBuilder url, int b) {
+    url.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+  }
+
+  /**
+   * ALPHA / DIGIT / "-" / "." / "_" / "~"
+   */
+  private static boolean isUnreserved(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~';
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
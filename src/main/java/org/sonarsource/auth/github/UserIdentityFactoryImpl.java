@@ -26,7 +26,6 @@ import org.sonar.api.SonarRuntime;
 import org.sonar.api.server.authentication.UserIdentity;
 import org.sonar.api.utils.Version;
 
-import static org.sonarsource.auth.github.UserIdentityGenerator.generateLogin;
 import static org.sonarsource.auth.github.UserIdentityGenerator.generateName;
 
 public class UserIdentityFactoryImpl implements UserIdentityFactory {
@@ -43,7 +42,7 @@ public class UserIdentityFactoryImpl implements UserIdentityFactory {
   public UserIdentity create(GsonUser user, @Nullable String email, @Nullable List<GsonTeams.GsonTeam> teams) {
     UserIdentity.Builder builder = UserIdentity.builder()
       .setProviderLogin(user.getLogin())
-      .setLogin(generateLogin(user, settings.loginStrategy()))
+      .setLogin(settings.configuration().generateLogin(user))
       .setName(generateName(user))
       .setEmail(email);
     if (teams != null) {
@@ -19,6 +19,8 @@
  */
 package org.sonarsource.auth.github;
 
+import java.util.function.Function;
+
 import static java.lang.String.format;
 import static org.sonarsource.auth.github.GitHubSettings.LOGIN_STRATEGY_PROVIDER_ID;
 import static org.sonarsource.auth.github.GitHubSettings.LOGIN_STRATEGY_UNIQUE;
@@ -29,14 +31,26 @@ class UserIdentityGenerator {
     // Only static method
   }
 
+  private static final String UNIQUE_LOGIN_SUFFIX = "@" + GitHubIdentityProvider.KEY;
+
   static String generateLogin(GsonUser gsonUser, String loginStrategy) {
+    return loginGenerator(loginStrategy).apply(gsonUser);
+  }
+
+  /**
+   * Resolves the strategy once, for example when the settings are loaded, rather than at each login. An unsupported
+   * strategy only fails when a login is generated.
+   */
+  static Function<GsonUser, String> loginGenerator(String loginStrategy) {
     switch (loginStrategy) {
       case LOGIN_STRATEGY_PROVIDER_ID:
-        return gsonUser.getLogin();
+        return GsonUser::getLogin;
       case LOGIN_STRATEGY_UNIQUE:
-        return generateUniqueLogin(gsonUser);
+        return UserIdentityGenerator::generateUniqueLogin;
       default:
-        throw new IllegalStateException(format("Login strategy not supported : %s", loginStrategy));
+        return gsonUser -> {
+          throw new IllegalStateException(format("Login strategy not supported : %s", loginStrategy));
+        };
     }
   }
 
@@ -46,6 +60,7 @@ class UserIdentityGenerator {
   }
 
   private static String generateUniqueLogin(GsonUser gsonUser) {
-    return format("%s@%s", gsonUser.getLogin(), GitHubIdentityProvider.KEY);
+    // concat() copies both strings directly into the result, with no intermediate builder
+    return gsonUser.getLogin().concat(UNIQUE_LOGIN_SUFFIX);
   }
 }
@@ -0,0 +1,131 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeadlineTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private GitHubExecutor executor = new GitHubExecutor();
+
+  @After
+  public void tearDown() {
+    executor.stop();
+  }
+
+  @Test
+  public void no_deadline_when_timeout_is_not_positive() {
+    assertThat(Deadline.in(0L)).isSameAs(Deadline.NONE);
+    assertThat(Deadline.in(-1L)).isSameAs(Deadline.NONE);
+    assertThat(Deadline.NONE.isExpired()).isFalse();
+  }
+
+  @Test
+  public void await_result_received_in_time() throws Exception {
+    assertThat(Deadline.in(10_000L).await(CompletableFuture.completedFuture("result"))).isEqualTo("result");
+    assertThat(Deadline.NONE.await(CompletableFuture.completedFuture("result"))).isEqualTo("result");
+  }
+
+  @Test
+  public void fail_when_result_is_not_received_in_time() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+
+    try {
+      Deadline.in(10L).await(future);
+    } catch (Deadline.ExceededException e) {
+      assertThat(e).hasMessage("GitHub did not answer within 10 ms, please retry later");
+    }
+    assertThat(future.isCancelled()).isTrue();
+  }
+
+  @Test
+  public void return_fallback_when_optional_result_is_not_received_in_time() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+
+    assertThat(GitHubExecutor.await(Deadline.in(10L).orElse(future, () -> "fallback", executor))).isEqualTo("fallback");
+    assertThat(future.isCancelled()).isTrue();
+  }
+
+  @Test
+  public void return_optional_result_received_in_time() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Deadline.in(10_000L).orElse(future, () -> "fallback", executor);
+
+    future.complete("result");
+    assertThat(GitHubExecutor.await(result)).isEqualTo("result");
+  }
+
+  @Test
+  public void return_fallback_when_optional_request_is_not_sent_because_deadline_is_passed() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Deadline.in(10_000L).orElse(future, () -> "fallback", executor);
+
+    future.completeExceptionally(new Deadline.ExceededException("GitHub did not answer within 10 ms, please retry later"));
+    assertThat(GitHubExecutor.await(result)).isEqualTo("fallback");
+  }
+
+  @Test
+  public void fail_required_result_not_received_in_time() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Deadline.in(10L).orFail(future, executor);
+
+    thrown.expect(Deadline.ExceededException.class);
+    thrown.expectMessage("GitHub did not answer within 10 ms, please retry later");
+    GitHubExecutor.await(result);
+  }
+
+  @Test
+  public void fail_to_check_expired_deadline() throws Exception {
+    Deadline deadline = Deadline.in(1L);
+    Thread.sleep(5L);
+    assertThat(deadline.isExpired()).isTrue();
+
+    thrown.expect(Deadline.ExceededException.class);
+    deadline.check();
+  }
+
+  @Test
+  public void cap_timeouts_to_time_left() {
+    Deadline deadline = Deadline.in(1_000L);
+
+    assertThat(deadline.cap(10_000)).isBetween(1, 1_000);
+    assertThat(deadline.cap(0)).isBetween(1, 1_000);
+    assertThat(deadline.cap(5)).isEqualTo(5);
+    assertThat(Deadline.NONE.cap(10_000)).isEqualTo(10_000);
+  }
+
+  @Test
+  public void bind_deadline_to_thread_while_request_is_sent() throws Exception {
+    Deadline deadline = Deadline.in(1_000L);
+
+    assertThat(Deadline.current()).isSameAs(Deadline.NONE);
+    assertThat(deadline.send(Deadline::current)).isSameAs(deadline);
+    assertThat(Deadline.current()).isSameAs(Deadline.NONE);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+
+import static java.lang.String.format;
+
+/**
+ * Fake of the GitHub endpoints used by a login, to be served by a MockWebServer. The authorization code
+ * {@code user-<n>} logs in as the user {@code octocat<n>}, which belongs to the organization when n is even.
+ * Latency, errors and rate limits are configurable.
+ */
+class FakeGitHub extends Dispatcher {
+
+  private static final Pattern CODE = Pattern.compile("code=user-(\\d+)");
+  private static final Pattern PAGE = Pattern.compile("[?&]page=(\\d+)");
+  private static final Pattern MEMBER = Pattern.compile("/orgs/([^/]+)/members/octocat(\\d+)");
+
+  private final String organization;
+  private final Map<String, Integer> usersByToken = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> remainingByToken = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> callsByEndpoint = new ConcurrentHashMap<>();
+  private final AtomicInteger tokens = new AtomicInteger();
+  private final LongAdder calls = new LongAdder();
+
+  private String baseUrl = "";
+  private int teamsPerUser = 10;
+  private int teamsPerPage = 100;
+  private long latencyInMs = 0L;
+  private long jitterInMs = 0L;
+  private double errorRate = 0D;
+  private int rateLimit = 5000;
+
+  FakeGitHub(String organization) {
+    this.organization = organization;
+  }
+
+  FakeGitHub setBaseUrl(String baseUrl) {
+    this.baseUrl = baseUrl;
+    return this;
+  }
+
+  FakeGitHub setTeamsPerUser(int teamsPerUser) {
+    this.teamsPerUser = teamsPerUser;
+    return this;
+  }
+
+  FakeGitHub setTeamsPerPage(int teamsPerPage) {
+    this.teamsPerPage = teamsPerPage;
+    return this;
+  }
+
+  /**
+   * Each response is delayed by the latency, plus a random delay up to the jitter
+   */
+  FakeGitHub setLatency(long latencyInMs, long jitterInMs) {
+    this.latencyInMs = latencyInMs;
+    this.jitterInMs = jitterInMs;
+    return this;
+  }
+
+  /**
+   * Ratio of the requests answered by 502 Bad Gateway
+   */
+  FakeGitHub setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+   * Requests allowed for each access token, as sent in the X-RateLimit-* headers. Requests above the limit are
+   * answered by 403.
+   */
+  FakeGitHub setRateLimit(int rateLimit) {
+    this.rateLimit = rateLimit;
+    return this;
+  }
+
+  long calls() {
+    return calls.sum();
+  }
+
+  Map<String, LongAdder> callsByEndpoint() {
+    return callsByEndpoint;
+  }
+
+  @Override
+  public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+    calls.increment();
+    delay();
+    String path = request.getPath();
+    String endpoint = endpoint(path);
+    callsByEndpoint.computeIfAbsent(endpoint, e -> new LongAdder()).increment();
+    if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+      return new MockResponse().setResponseCode(502).setBody("{\"message\": \"Server Error\"}");
+    }
+    if ("/login/oauth/access_token".equals(path)) {
+      return accessToken(request.getBody().readUtf8());
+    }
+    String token = token(request);
+    Integer user = token == null ? null : usersByToken.get(token);
+    if (user == null) {
+      return new MockResponse().setResponseCode(401).setBody("{\"message\": \"Bad credentials\"}");
+    }
+    int remaining = remainingByToken.computeIfAbsent(token, t -> new AtomicInteger(rateLimit)).decrementAndGet();
+    if (remaining < 0) {
+      return withRateLimit(new MockResponse().setResponseCode(403).setBody("{\"message\": \"API rate limit exceeded\"}"), 0);
+    }
+    return withRateLimit(answer(endpoint, path, user), remaining);
+  }
+
+  private MockResponse answer(String endpoint, String path, int user) {
+    switch (endpoint) {
+      case "/user":
+        return new MockResponse().setBody(GitHubFixtures.user(user, "octocat" + user));
+      case "/user/emails":
+        return new MockResponse().setBody(GitHubFixtures.emails("octocat" + user));
+      case "/user/teams":
+        return teams(path);
+      case "/orgs/members":
+        Matcher member = MEMBER.matcher(path);
+        boolean isMember = member.matches() && organization.equalsIgnoreCase(member.group(1)) && Integer.parseInt(member.group(2)) % 2 == 0;
+        return new MockResponse().setResponseCode(isMember ? 204 : 404);
+      default:
+        return new MockResponse().setResponseCode(404);
+    }
+  }
+
+  private MockResponse teams(String path) {
+    Matcher pageMatcher = PAGE.matcher(path);
+    int page = pageMatcher.find() ? Integer.parseInt(pageMatcher.group(1)) : 1;
+    int lastPage = Math.max(1, (teamsPerUser + teamsPerPage - 1) / teamsPerPage);
+    int from = (page - 1) * teamsPerPage;
+    MockResponse response = new MockResponse()
+      .setBody(GitHubFixtures.teams(organization, from, Math.min(teamsPerUser, from + teamsPerPage)))
+      .setHeader("ETag", format("\"teams-%d-%d\"", teamsPerUser, page));
+    if (page < lastPage) {
+      response.setHeader("Link", format("<%suser/teams?per_page=100&page=%d>; rel=\"next\", <%suser/teams?per_page=100&page=%d>; rel=\"last\"",
+        baseUrl, page + 1, baseUrl, lastPage));
+    }
+    return response;
+  }
+
+  private MockResponse accessToken(String body) {
+    Matcher code = CODE.matcher(body);
+    if (!code.find()) {
+      return new MockResponse().setBody("error=bad_verification_code");
+    }
+    String token = "gho_" + tokens.incrementAndGet();
+    usersByToken.put(token, Integer.parseInt(code.group(1)));
+    return new MockResponse().setBody(format("access_token=%s&scope=user%%3Aemail%%2Cread%%3Aorg&token_type=bearer", token));
+  }
+
+  private MockResponse withRateLimit(MockResponse response, int remaining) {
+    return response
+      .setHeader("X-RateLimit-Limit", rateLimit)
+      .setHeader("X-RateLimit-Remaining", Math.max(0, remaining))
+      .setHeader("X-RateLimit-Reset", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600);
+  }
+
+  private void delay() throws InterruptedException {
+    long delay = latencyInMs + (jitterInMs > 0 ? ThreadLocalRandom.current().nextLong(jitterInMs + 1) : 0L);
+    if (delay > 0) {
+      Thread.sleep(delay);
+    }
+  }
+
+  private static String endpoint(String path) {
+    int query = path.indexOf('?');
+    String endpoint = query < 0 ? path : path.substring(0, query);
+    return endpoint.startsWith("/orgs/") ? "/orgs/members" : endpoint;
+  }
+
+  @CheckForNull
+  private static String token(RecordedRequest request) {
+    String authorization = request.getHeader("Authorization");
+    if (authorization != null) {
+      return authorization.substring(authorization.indexOf(' ') + 1);
+    }
+    String path = request.getPath();
+    int index = path.indexOf("access_token=");
+    if (index < 0) {
+      return null;
+    }
+    int end = path.indexOf('&', index);
+    return path.substring(index + "access_token=".length(), end < 0 ? path.length() : end);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.Response;
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.util.Collections.emptyMap;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FlightRecorderTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void events_are_not_created_when_not_recorded() {
+    assertThat(FlightRecorder.isAvailable()).isTrue();
+
+    assertThat(FlightRecorder.beginRequest("Teams", "user/teams")).isSameAs(FlightRecorder.NO_REQUEST_EVENT);
+    assertThat(FlightRecorder.beginPhase("teams")).isSameAs(FlightRecorder.NO_PHASE_EVENT);
+  }
+
+  @Test
+  public void record_requests_and_phases() throws Exception {
+    Path file = temp.newFile("auth.jfr").toPath();
+    GitHubMetrics metrics = new GitHubMetrics();
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrEvents.REQUEST_EVENT);
+      recording.enable(JfrEvents.PHASE_EVENT);
+      recording.start();
+
+      GitHubMetrics.RequestTimer request = metrics.startRequest("Teams", "user/teams");
+      request.addBytes(512L);
+      request.received(new Response(200, "OK", emptyMap(), ""));
+      request.stop();
+      metrics.runPhase("csrf", () -> {
+      });
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    assertThat(events).hasSize(2);
+    RecordedEvent request = events.stream().filter(e -> e.getEventType().getName().equals(JfrEvents.REQUEST_EVENT)).findFirst().get();
+    assertThat(request.getString("endpoint")).isEqualTo("Teams");
+    assertThat(request.getString("urlTemplate")).isEqualTo("user/teams");
+    assertThat(request.getInt("statusCode")).isEqualTo(200);
+    assertThat(request.getLong("bytesRead")).isEqualTo(512L);
+    RecordedEvent phase = events.stream().filter(e -> e.getEventType().getName().equals(JfrEvents.PHASE_EVENT)).findFirst().get();
+    assertThat(phase.getString("phase")).isEqualTo("csrf");
+    assertThat(phase.getBoolean("success")).isTrue();
+    assertThat(metrics.bytesRead()).isEqualTo(512L);
+  }
+
+  @Test
+  public void record_requests_without_response() throws Exception {
+    Path file = temp.newFile("auth.jfr").toPath();
+    GitHubMetrics metrics = new GitHubMetrics();
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrEvents.REQUEST_EVENT);
+      recording.start();
+
+      GitHubMetrics.RequestTimer request = metrics.startRequest("Teams", "user/teams");
+      request.stop();
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getInt("statusCode")).isEqualTo(GitHubMetrics.NO_RESPONSE);
+  }
+}
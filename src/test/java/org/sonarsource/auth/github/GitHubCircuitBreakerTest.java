@@ -0,0 +1,219 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.exceptions.OAuthException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GitHubCircuitBreakerTest {
+
+  private static final String URL = "https://github.company.com/api/v3/user";
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private Settings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private System2 system2 = mock(System2.class);
+
+  private GitHubCircuitBreaker underTest = new GitHubCircuitBreaker(new GitHubSettings(settings), system2);
+
+  @Test
+  public void never_open_by_default() throws Exception {
+    for (int i = 0; i < 2 * GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      callAndFail();
+    }
+
+    assertThat(underTest.isOpen(URL)).isFalse();
+    assertThat(underTest.call(URL, () -> "octocat")).isEqualTo("octocat");
+  }
+
+  @Test
+  public void open_when_failure_rate_is_reached() throws Exception {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 50);
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE / 2; i++) {
+      underTest.call(URL, () -> "octocat");
+    }
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE / 2 - 1; i++) {
+      callAndFail();
+    }
+    assertThat(underTest.isOpen(URL)).isFalse();
+
+    callAndFail();
+
+    assertThat(underTest.isOpen(URL)).isTrue();
+    assertThat(underTest.isOpen("https://api.github.com/user")).as("other host").isFalse();
+    thrown.expect(GitHubCircuitBreaker.OpenException.class);
+    thrown.expectMessage("GitHub is not available at github.company.com, please retry later");
+    underTest.call(URL, () -> "octocat");
+  }
+
+  @Test
+  public void invalid_and_interrupted_calls_are_not_recorded() throws Exception {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 50);
+    for (int i = 0; i < 2 * GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      try {
+        underTest.call(URL, () -> {
+          throw new OAuthException("Response body is incorrect");
+        });
+        fail("exception expected");
+      } catch (OAuthException e) {
+        // expected
+      }
+      try {
+        underTest.call(URL, () -> {
+          throw new InterruptedIOException("interrupted");
+        });
+        fail("exception expected");
+      } catch (InterruptedIOException e) {
+        // expected
+      }
+      try {
+        underTest.call(URL, () -> {
+          throw new InterruptedException();
+        });
+        fail("exception expected");
+      } catch (InterruptedException e) {
+        // expected
+      }
+    }
+
+    assertThat(underTest.isOpen(URL)).isFalse();
+  }
+
+  @Test
+  public void timeouts_are_failures() throws Exception {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 100);
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      try {
+        underTest.call(URL, () -> {
+          throw new SocketTimeoutException("timeout");
+        });
+        fail("exception expected");
+      } catch (SocketTimeoutException e) {
+        // expected
+      }
+    }
+
+    assertThat(underTest.isOpen(URL)).isTrue();
+  }
+
+  @Test
+  public void slow_calls_are_failures() throws Exception {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 100);
+    settings.setProperty("sonar.auth.github.circuitBreaker.slowCallDuration", 1_000);
+    when(system2.now()).thenReturn(0L, 999L);
+    underTest.call(URL, () -> "fast");
+    assertThat(underTest.isOpen(URL)).isFalse();
+
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      when(system2.now()).thenReturn(0L, 1_000L);
+      underTest.call(URL, () -> "slow");
+    }
+
+    when(system2.now()).thenReturn(1_000L);
+    assertThat(underTest.isOpen(URL)).isTrue();
+  }
+
+  @Test
+  public void probe_host_once_open_duration_is_elapsed() throws Exception {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 100);
+    settings.setProperty("sonar.auth.github.circuitBreaker.openDuration", 30);
+    when(system2.now()).thenReturn(0L);
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      callAndFail();
+    }
+    assertThat(underTest.isOpen(URL)).isTrue();
+
+    // failed probe opens the circuit again
+    when(system2.now()).thenReturn(30_000L);
+    assertThat(underTest.isOpen(URL)).isFalse();
+    callAndFail();
+    assertThat(underTest.isOpen(URL)).isTrue();
+
+    // successful probe closes the circuit
+    when(system2.now()).thenReturn(60_000L);
+    assertThat(underTest.call(URL, () -> "octocat")).isEqualTo("octocat");
+    assertThat(underTest.isOpen(URL)).isFalse();
+    assertThat(underTest.call(URL, () -> "octocat")).isEqualTo("octocat");
+  }
+
+  @Test
+  public void single_probe_in_half_open_state() throws Exception {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 100);
+    when(system2.now()).thenReturn(0L);
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      callAndFail();
+    }
+
+    when(system2.now()).thenReturn(30_000L);
+    underTest.call(URL, () -> {
+      assertThat(underTest.isOpen(URL)).isTrue();
+      try {
+        underTest.call(URL, () -> "concurrent");
+        fail("circuit is open during the probe");
+      } catch (GitHubCircuitBreaker.OpenException e) {
+        // expected
+      }
+      return "probe";
+    });
+
+    assertThat(underTest.isOpen(URL)).isFalse();
+  }
+
+  @Test
+  public void return_state_of_circuits() throws Exception {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 100);
+    when(system2.now()).thenReturn(0L);
+    assertThat(underTest.states()).isEmpty();
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      callAndFail();
+    }
+    underTest.call("https://api.github.com/user", () -> "octocat");
+
+    assertThat(underTest.states()).containsEntry("github.company.com", "OPEN").containsEntry("api.github.com", "CLOSED");
+    when(system2.now()).thenReturn(30_000L);
+    assertThat(underTest.states()).containsEntry("github.company.com", "HALF_OPEN");
+  }
+
+  private void callAndFail() throws Exception {
+    try {
+      underTest.call(URL, () -> {
+        throw new IOException("Connection reset");
+      });
+      fail("exception expected");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
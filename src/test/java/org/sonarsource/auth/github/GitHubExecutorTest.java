@@ -0,0 +1,153 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.config.internal.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonarsource.auth.github.GitHubExecutor.await;
+
+public class GitHubExecutorTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private GitHubExecutor underTest = new GitHubExecutor();
+
+  @After
+  public void tearDown() {
+    underTest.stop();
+  }
+
+  @Test
+  public void return_result_of_submitted_call() throws Exception {
+    assertThat(await(underTest.submit(() -> "octocat"))).isEqualTo("octocat");
+  }
+
+  @Test
+  public void rethrow_runtime_exception_of_submitted_call() throws Exception {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Fail to execute request");
+
+    await(underTest.submit(() -> {
+      throw new IllegalStateException("Fail to execute request");
+    }));
+  }
+
+  @Test
+  public void rethrow_io_exception_of_submitted_call() throws Exception {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Connection reset");
+
+    await(underTest.submit(() -> {
+      throw new IOException("Connection reset");
+    }));
+  }
+
+  @Test
+  public void interrupt_call_when_result_is_cancelled() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    CompletableFuture<String> result = underTest.submit(() -> {
+      started.countDown();
+      try {
+        Thread.sleep(60_000L);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+        throw e;
+      }
+      return "octocat";
+    });
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(result.cancel(true)).isTrue();
+
+    assertThat(interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(result.isCancelled()).isTrue();
+  }
+
+  @Test
+  public void execute_call_in_calling_thread_when_pool_is_saturated() throws Exception {
+    GitHubExecutor executor = new GitHubExecutor(1, false);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      for (int i = 0; i < 5; i++) {
+        executor.submit(() -> release.await(10, TimeUnit.SECONDS));
+      }
+
+      assertThat(await(executor.submit(() -> Thread.currentThread().getName()))).isEqualTo(Thread.currentThread().getName());
+    } finally {
+      release.countDown();
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void fail_call_submitted_after_stop() throws Exception {
+    underTest.stop();
+
+    thrown.expect(RejectedExecutionException.class);
+    thrown.expectMessage("GitHub executor is stopped");
+
+    await(underTest.submit(() -> "octocat"));
+  }
+
+  @Test
+  public void size_pool_with_settings() {
+    MapSettings settings = new MapSettings();
+    settings.setProperty("sonar.auth.github.http.threads", 4);
+    GitHubExecutor executor = new GitHubExecutor(new GitHubSettings(settings));
+    try {
+      assertThat(executor.poolSize()).isEqualTo(4);
+    } finally {
+      executor.stop();
+    }
+    assertThat(underTest.poolSize()).isEqualTo(GitHubExecutor.DEFAULT_POOL_SIZE);
+  }
+
+  @Test
+  public void run_scheduled_task() throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    underTest.schedule(done::countDown, 10, TimeUnit.MILLISECONDS);
+
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void send_requests_from_virtual_threads_when_supported() throws Exception {
+    boolean supported = GitHubExecutor.newVirtualThreadPerTaskExecutor() != null;
+    GitHubExecutor executor = new GitHubExecutor(4, true);
+    try {
+      assertThat(executor.poolSize()).isEqualTo(supported ? 0 : 4);
+      assertThat(await(executor.submit(() -> "octocat"))).isEqualTo("octocat");
+    } finally {
+      executor.stop();
+    }
+  }
+}
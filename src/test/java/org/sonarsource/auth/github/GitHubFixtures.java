@@ -0,0 +1,96 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import static java.lang.String.format;
+
+/**
+ * Payloads shaped like the responses of api.github.com, with all the fields that GitHub sends even if the plugin
+ * ignores most of them, so that parsing costs are realistic.
+ */
+final class GitHubFixtures {
+
+  private GitHubFixtures() {
+    // only static methods
+  }
+
+  static String user(int id, String login) {
+    return "{" +
+      format("\"login\": \"%s\", \"id\": %d, \"node_id\": \"MDQ6VXNlcjE=\", ", login, id) +
+      format("\"avatar_url\": \"https://github.com/images/%s.gif\", \"gravatar_id\": \"\", ", login) +
+      format("\"url\": \"https://api.github.com/users/%s\", \"html_url\": \"https://github.com/%s\", ", login, login) +
+      format("\"followers_url\": \"https://api.github.com/users/%s/followers\", ", login) +
+      format("\"repos_url\": \"https://api.github.com/users/%s/repos\", ", login) +
+      "\"type\": \"User\", \"site_admin\": false, " +
+      format("\"name\": \"monalisa %s\", \"company\": \"GitHub\", \"blog\": \"https://github.com/blog\", ", login) +
+      "\"location\": \"San Francisco\", \"email\": null, \"hireable\": false, " +
+      "\"bio\": \"There once was...\", \"twitter_username\": \"monatheoctocat\", " +
+      "\"public_repos\": 2, \"public_gists\": 1, \"followers\": 20, \"following\": 0, " +
+      "\"created_at\": \"2008-01-14T04:33:35Z\", \"updated_at\": \"2008-01-14T04:33:35Z\"" +
+      "}";
+  }
+
+  static String emails(String login) {
+    return "[" +
+      format("{\"email\": \"%s@users.noreply.github.com\", \"verified\": true, \"primary\": false, \"visibility\": null}, ", login) +
+      format("{\"email\": \"%s@github.com\", \"verified\": true, \"primary\": true, \"visibility\": \"private\"}", login) +
+      "]";
+  }
+
+  /**
+   * Teams {@code from} (inclusive) to {@code to} (exclusive) of the given organization
+   */
+  static String teams(String organization, int from, int to) {
+    StringBuilder json = new StringBuilder("[");
+    for (int id = from; id < to; id++) {
+      if (id > from) {
+        json.append(", ");
+      }
+      json.append(team(organization, id));
+    }
+    return json.append(']').toString();
+  }
+
+  static String teams(int count) {
+    return teams("github", 0, count);
+  }
+
+  private static String team(String organization, int id) {
+    String slug = "team-" + id;
+    return "{" +
+      format("\"id\": %d, \"node_id\": \"MDQ6VGVhbTE=\", \"url\": \"https://api.github.com/teams/%d\", ", id, id) +
+      format("\"html_url\": \"https://github.com/orgs/%s/teams/%s\", \"name\": \"Team %d\", \"slug\": \"%s\", ", organization, slug, id, slug) +
+      "\"description\": \"A great team.\", \"privacy\": \"closed\", \"permission\": \"admin\", " +
+      format("\"members_url\": \"https://api.github.com/teams/%d/members{/member}\", ", id) +
+      format("\"repositories_url\": \"https://api.github.com/teams/%d/repos\", \"parent\": null, ", id) +
+      "\"members_count\": 3, \"repos_count\": 10, " +
+      "\"created_at\": \"2017-07-14T16:53:42Z\", \"updated_at\": \"2017-08-17T12:37:15Z\", " +
+      "\"organization\": {" +
+      format("\"login\": \"%s\", \"id\": 1, \"node_id\": \"MDEyOk9yZ2FuaXphdGlvbjE=\", ", organization) +
+      format("\"url\": \"https://api.github.com/orgs/%s\", \"repos_url\": \"https://api.github.com/orgs/%s/repos\", ", organization, organization) +
+      format("\"events_url\": \"https://api.github.com/orgs/%s/events\", ", organization) +
+      "\"avatar_url\": \"https://github.com/images/error/octocat_happy.gif\", \"description\": \"A great organization\", " +
+      format("\"name\": \"%s\", \"company\": \"GitHub\", \"blog\": \"https://github.com/blog\", ", organization) +
+      "\"location\": \"San Francisco\", \"email\": \"octocat@github.com\", \"is_verified\": true, " +
+      "\"public_repos\": 2, \"followers\": 20, \"following\": 0, \"type\": \"Organization\", " +
+      "\"created_at\": \"2008-01-14T04:33:35Z\", \"updated_at\": \"2014-03-03T18:58:10Z\"" +
+      "}}";
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.httpclient.HttpClient;
+import com.github.scribejava.core.model.Response;
+import com.github.scribejava.core.model.Verb;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class GitHubHttpTransportTest {
+
+  @Rule
+  public MockWebServer github = new MockWebServer();
+
+  private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private GitHubHttpTransport underTest = new GitHubHttpTransport(new GitHubSettings(settings));
+
+  @After
+  public void tearDown() {
+    underTest.stop();
+  }
+
+  @Test
+  public void use_default_scribe_transport_by_default() {
+    assertThat(underTest.httpClient()).isNull();
+    assertThat(underTest.connectionReuseRatio()).isZero();
+    assertThat(underTest.connectionCount()).isZero();
+  }
+
+  @Test
+  public void reuse_pooled_client_while_settings_do_not_change() {
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_POOLED);
+
+    HttpClient client = underTest.httpClient();
+
+    assertThat(client).isNotNull();
+    assertThat(underTest.httpClient()).isSameAs(client);
+  }
+
+  @Test
+  public void create_new_pooled_client_when_settings_change() {
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_POOLED);
+    HttpClient client = underTest.httpClient();
+
+    settings.setProperty("sonar.auth.github.http.maxConnections", 5);
+
+    assertThat(underTest.httpClient()).isNotNull().isNotSameAs(client);
+  }
+
+  @Test
+  public void complete_requests_in_progress_when_settings_change() throws Exception {
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_POOLED);
+    github.enqueue(new MockResponse().setBody("octocat").setBodyDelay(200, TimeUnit.MILLISECONDS));
+    github.enqueue(new MockResponse().setBody("monalisa"));
+    HttpClient client = underTest.httpClient();
+    Response inProgress = client.execute(null, Collections.emptyMap(), Verb.GET, github.url("/user").toString(), (byte[]) null);
+
+    settings.setProperty("sonar.auth.github.http.maxConnections", 5);
+    assertThat(underTest.httpClient()).isNotSameAs(client);
+
+    assertThat(inProgress.getBody()).isEqualTo("octocat");
+    // a thread which got the previous client before it was replaced can still send its request
+    assertThat(client.execute(null, Collections.emptyMap(), Verb.GET, github.url("/user").toString(), (byte[]) null).getBody()).isEqualTo("monalisa");
+  }
+
+  @Test
+  public void close_pool_when_back_to_default_transport() {
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_POOLED);
+    underTest.httpClient();
+
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_DEFAULT);
+
+    assertThat(underTest.httpClient()).isNull();
+  }
+
+  @Test
+  public void cap_read_timeout_by_deadline() throws Exception {
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_POOLED);
+    settings.setProperty("sonar.auth.github.http.readTimeout", 30_000);
+    github.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+    HttpClient client = underTest.httpClient();
+    String url = github.url("/user").toString();
+
+    long start = System.nanoTime();
+    try {
+      Deadline.in(200L).send(() -> client.execute(null, Collections.emptyMap(), Verb.GET, url, (byte[]) null));
+      fail("the read timeout is not capped");
+    } catch (SocketTimeoutException e) {
+      assertThat(System.nanoTime() - start).isLessThan(10_000_000_000L);
+    }
+  }
+}
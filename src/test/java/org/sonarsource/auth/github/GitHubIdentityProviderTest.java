@@ -40,8 +40,15 @@ public class GitHubIdentityProviderTest {
   private GitHubSettings gitHubSettings = new GitHubSettings(settings);
   private UserIdentityFactoryImpl userIdentityFactory = mock(UserIdentityFactoryImpl.class);
   private ScribeGitHubApi scribeApi = new ScribeGitHubApi(gitHubSettings);
-  private GitHubRestClient gitHubRestClient = new GitHubRestClient(gitHubSettings);
-  private GitHubIdentityProvider underTest = new GitHubIdentityProvider(gitHubSettings, userIdentityFactory, scribeApi, gitHubRestClient);
+  private GitHubHttpTransport httpTransport = new GitHubHttpTransport(gitHubSettings);
+  private ScribeServiceCache scribeServices = new ScribeServiceCache(scribeApi, httpTransport);
+  private GitHubExecutor executor = new GitHubExecutor();
+  private GitHubCircuitBreaker circuitBreaker = new GitHubCircuitBreaker(gitHubSettings);
+  private GitHubMetrics metrics = new GitHubMetrics();
+  private GitHubRoster roster = new GitHubRoster(gitHubSettings);
+  private GitHubRestClient gitHubRestClient = new GitHubRestClient(gitHubSettings, executor, circuitBreaker, metrics);
+  private GitHubAppTokens appTokens = new GitHubAppTokens(gitHubSettings, gitHubRestClient, scribeServices);
+  private GitHubIdentityProvider underTest = new GitHubIdentityProvider(gitHubSettings, userIdentityFactory, scribeServices, gitHubRestClient, new GitHubGraphQLClient(gitHubSettings, circuitBreaker, metrics), executor, circuitBreaker, metrics, roster, appTokens);
 
   @Test
   public void check_fields() {
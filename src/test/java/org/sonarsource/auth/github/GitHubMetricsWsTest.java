@@ -0,0 +1,151 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.StringWriter;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.text.JsonWriter;
+
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GitHubMetricsWsTest {
+
+  private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private GitHubMetrics metrics = new GitHubMetrics();
+  private GitHubRestClient gitHubRestClient = mock(GitHubRestClient.class);
+  private GitHubHttpTransport httpTransport = mock(GitHubHttpTransport.class);
+  private GitHubCircuitBreaker circuitBreaker = mock(GitHubCircuitBreaker.class);
+  private RateLimits rateLimits = mock(RateLimits.class);
+
+  private GitHubMetricsWs underTest = new GitHubMetricsWs(new GitHubSettings(settings), metrics, gitHubRestClient, httpTransport, circuitBreaker);
+
+  @Before
+  public void setUp() {
+    settings.setProperty("sonar.auth.github.metrics.token.secured", "the-token");
+  }
+
+  @Test
+  public void define_internal_action() {
+    WebService.Context context = new WebService.Context();
+    underTest.define(context);
+
+    WebService.Action action = context.controller("api/authgithub").action("metrics");
+    assertThat(action).isNotNull();
+    assertThat(action.isInternal()).isTrue();
+    assertThat(action.isPost()).isFalse();
+  }
+
+  @Test
+  public void write_metrics() throws Exception {
+    metrics.recordRequest("Teams", 200, 2_000_000L);
+    metrics.recordRequest("Teams", 304, 1_000_000L);
+    metrics.recordPage();
+    metrics.recordBytes(512L);
+    metrics.recordPhase("callback", 5_000_000L);
+    when(gitHubRestClient.rateLimits()).thenReturn(rateLimits);
+    when(rateLimits.lowestRemaining()).thenReturn(OptionalLong.of(42L));
+    when(httpTransport.connectionCount()).thenReturn(3L);
+    when(httpTransport.connectionReuseRatio()).thenReturn(0.5D);
+    when(circuitBreaker.states()).thenReturn(new TreeMap<>(singletonMap("api.github.com", "CLOSED")));
+
+    String json = call("the-token");
+
+    assertThat(json)
+      .contains("\"requests\":{\"Teams\":{\"count\":2,\"sum\":3000,\"max\":2000,")
+      .contains("\"phases\":{\"callback\":{\"count\":1,")
+      .contains("\"statusCodes\":{\"200\":1,\"304\":1}")
+      .contains("\"pages\":1")
+      .contains("\"bytesRead\":512")
+      .contains("\"rateLimitLowestRemaining\":42")
+      .contains("\"connections\":{\"count\":3,\"reuseRatio\":0.5}")
+      .contains("\"circuits\":{\"api.github.com\":\"CLOSED\"}");
+  }
+
+  @Test
+  public void skip_unknown_rate_limit() throws Exception {
+    when(gitHubRestClient.rateLimits()).thenReturn(rateLimits);
+    when(rateLimits.lowestRemaining()).thenReturn(OptionalLong.empty());
+    when(circuitBreaker.states()).thenReturn(new TreeMap<>());
+
+    assertThat(call("the-token")).doesNotContain("rateLimitLowestRemaining").contains("\"requests\":{}");
+  }
+
+  @Test
+  public void return_not_found_when_token_is_not_set() throws Exception {
+    settings.removeProperty("sonar.auth.github.metrics.token.secured");
+    Response.Stream stream = mock(Response.Stream.class);
+    Response response = mock(Response.class);
+    when(response.stream()).thenReturn(stream);
+
+    handle(request("the-token"), response);
+
+    verify(stream).setStatus(404);
+    verify(response, never()).newJsonWriter();
+  }
+
+  @Test
+  public void return_unauthorized_when_token_is_missing_or_invalid() throws Exception {
+    for (String token : new String[] {null, "", "the-toke", "another-token"}) {
+      Response.Stream stream = mock(Response.Stream.class);
+      Response response = mock(Response.class);
+      when(response.stream()).thenReturn(stream);
+
+      handle(request(token), response);
+
+      verify(stream).setStatus(401);
+      verify(response, never()).newJsonWriter();
+    }
+  }
+
+  private String call(String token) throws Exception {
+    StringWriter output = new StringWriter();
+    Response response = mock(Response.class);
+    when(response.newJsonWriter()).thenReturn(JsonWriter.of(output));
+    handle(request(token), response);
+    return output.toString();
+  }
+
+  private void handle(Request request, Response response) throws Exception {
+    WebService.Context context = new WebService.Context();
+    underTest.define(context);
+    context.controller("api/authgithub").action("metrics").handler().handle(request, response);
+  }
+
+  private static Request request(@Nullable String token) {
+    Request request = mock(Request.class);
+    when(request.header("X-Metrics-Token")).thenReturn(Optional.ofNullable(token));
+    return request;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GitHubRosterIndexerTest {
+
+  @Rule
+  public MockWebServer github = new MockWebServer();
+
+  private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private GitHubSettings gitHubSettings = new GitHubSettings(settings);
+  private System2 system2 = mock(System2.class);
+  private GitHubExecutor executor = new GitHubExecutor();
+  private GitHubCircuitBreaker circuitBreaker = new GitHubCircuitBreaker(gitHubSettings);
+  private GitHubRestClient gitHubRestClient = new GitHubRestClient(gitHubSettings, executor, circuitBreaker, new GitHubMetrics());
+  private ScribeServiceCache scribeServices = new ScribeServiceCache(new ScribeGitHubApi(gitHubSettings), new GitHubHttpTransport(gitHubSettings));
+  private GitHubRoster roster = new GitHubRoster(gitHubSettings, system2);
+  private GitHubAppTokens appTokens = new GitHubAppTokens(gitHubSettings, gitHubRestClient, scribeServices, system2);
+  private List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+  private GitHubRosterIndexer underTest = new GitHubRosterIndexer(gitHubSettings, gitHubRestClient, scribeServices, executor, roster, appTokens, system2);
+
+  @Before
+  public void setUp() {
+    String gitHubUrl = format("http://%s:%d", github.getHostName(), github.getPort());
+    settings.setProperty("sonar.auth.github.clientId.secured", "the_id");
+    settings.setProperty("sonar.auth.github.clientSecret.secured", "the_secret");
+    settings.setProperty("sonar.auth.github.enabled", true);
+    settings.setProperty("sonar.auth.github.apiUrl", gitHubUrl);
+    settings.setProperty("sonar.auth.github.organizations", "sonarsource,unknown");
+    settings.setProperty("sonar.auth.github.roster.token.secured", "service-token");
+    settings.setProperty("sonar.auth.github.roster.maxAge", 60);
+    github.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        requests.add(request.getPath() + " " + request.getHeader("If-None-Match"));
+        switch (request.getPath()) {
+          case "/orgs/sonarsource":
+            return new MockResponse().setBody("{\"login\": \"SonarSource\", \"id\": 1}").setHeader("ETag", "\"org\"");
+          case "/orgs/sonarsource/members?per_page=100":
+            return new MockResponse().setBody("[{\"login\": \"Octocat\"}, {\"login\": \"hubot\"}]").setHeader("ETag", "\"members\"");
+          case "/orgs/sonarsource/teams?per_page=100":
+            return new MockResponse().setBody("[{\"slug\": \"developers\"}, {\"slug\": \"qa\"}]").setHeader("ETag", "\"teams\"");
+          case "/orgs/sonarsource/teams/developers/members?per_page=100":
+            return new MockResponse().setBody("[{\"login\": \"octocat\"}]").setHeader("ETag", "\"developers\"");
+          case "/orgs/sonarsource/teams/qa/members?per_page=100":
+            return new MockResponse().setBody("[{\"login\": \"octocat\"}, {\"login\": \"hubot\"}]").setHeader("ETag", "\"qa\"");
+          default:
+            return new MockResponse().setResponseCode(404);
+        }
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    executor.stop();
+  }
+
+  @Test
+  public void index_members_and_teams_of_organizations() throws Exception {
+    when(system2.now()).thenReturn(1_000L);
+
+    underTest.refresh();
+
+    RosterIndex index = roster.index();
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.isIndexed("SONARSOURCE")).isTrue();
+    assertThat(index.isIndexed("unknown")).isFalse();
+    assertThat(roster.isMember("sonarsource", "OCTOCAT")).isTrue();
+    assertThat(roster.isMember("sonarsource", "monalisa")).isFalse();
+    assertThat(roster.isMember("unknown", "octocat")).isFalse();
+    assertThat(index.teams("octocat")).extracting(GsonTeams.GsonTeam::getOrganizationId).containsOnly("SonarSource");
+    assertThat(index.teams("octocat")).extracting(GsonTeams.GsonTeam::getId).containsExactly("developers", "qa");
+    // one of the organizations is not indexed
+    assertThat(roster.teams(gitHubSettings.configuration(), "octocat")).isNull();
+    settings.setProperty("sonar.auth.github.organizations", "SonarSource");
+    assertThat(roster.teams(gitHubSettings.configuration(), "hubot")).extracting(GsonTeams.GsonTeam::getId).containsExactly("qa");
+  }
+
+  @Test
+  public void refresh_sends_conditional_requests() throws Exception {
+    underTest.refresh();
+    requests.clear();
+
+    underTest.refresh();
+
+    assertThat(requests).contains("/orgs/sonarsource/members?per_page=100 \"members\"", "/orgs/sonarsource/teams/qa/members?per_page=100 \"qa\"");
+  }
+
+  @Test
+  public void stale_index_is_not_used() throws Exception {
+    when(system2.now()).thenReturn(1_000L);
+    underTest.refresh();
+
+    when(system2.now()).thenReturn(61_000L);
+
+    assertThat(roster.isMember("sonarsource", "octocat")).isFalse();
+    assertThat(roster.teams(gitHubSettings.configuration(), "octocat")).isNull();
+  }
+
+  @Test
+  public void cold_index_is_not_used() {
+    assertThat(roster.index()).isNull();
+    assertThat(roster.isMember("sonarsource", "octocat")).isFalse();
+    assertThat(roster.teams(gitHubSettings.configuration(), "octocat")).isNull();
+  }
+
+  @Test
+  public void is_configured_when_token_and_organizations_are_set() {
+    assertThat(underTest.isConfigured()).isTrue();
+
+    settings.removeProperty("sonar.auth.github.roster.token.secured");
+    assertThat(underTest.isConfigured()).isFalse();
+  }
+}
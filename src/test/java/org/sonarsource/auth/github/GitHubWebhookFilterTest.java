@@ -0,0 +1,329 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.sonarsource.auth.github.GitHubExecutor.await;
+
+public class GitHubWebhookFilterTest {
+
+  private static final String SECRET = "It's a Secret to Everybody";
+
+  private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private GitHubSettings gitHubSettings = new GitHubSettings(settings);
+  private System2 system2 = mock(System2.class);
+  private MembershipCache membershipCache = new MembershipCache(gitHubSettings, system2);
+  private TeamsCache teamsCache = new TeamsCache(gitHubSettings, system2);
+  private GitHubRoster roster = new GitHubRoster(gitHubSettings, system2);
+  private GitHubRestClient gitHubRestClient = mock(GitHubRestClient.class);
+  private HttpServletResponse response = mock(HttpServletResponse.class);
+  private FilterChain chain = mock(FilterChain.class);
+
+  private GitHubWebhookFilter underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    when(gitHubRestClient.membershipCache()).thenReturn(membershipCache);
+    underTest = new GitHubWebhookFilter(gitHubSettings, new GitHubWebhookEvents(gitHubRestClient, teamsCache, roster));
+    when(system2.now()).thenReturn(1_000L);
+    settings.setProperty("sonar.auth.github.clientId.secured", "the_id");
+    settings.setProperty("sonar.auth.github.clientSecret.secured", "the_secret");
+    settings.setProperty("sonar.auth.github.enabled", true);
+    settings.setProperty("sonar.auth.github.organizations", "SonarSource");
+    settings.setProperty("sonar.auth.github.webhook.secret.secured", SECRET);
+    settings.setProperty("sonar.auth.github.organizations.cache.positiveTtl", 86_400);
+    settings.setProperty("sonar.auth.github.groupsSync.cache.maxAge", 86_400);
+
+    membershipCache.put("SonarSource", "octocat", true);
+    membershipCache.put("SonarSource", "hubot", true);
+    membershipCache.put("github", "octocat", true);
+    cacheTeams("octocat", team("SonarSource", "developers"), team("github", "qa"));
+    cacheTeams("hubot", team("SonarSource", "qa"));
+    cacheTeams("monalisa", team("github", "developers"));
+    GsonUser octocat = new GsonUser("1", "octocat", null, null);
+    GsonUser hubot = new GsonUser("2", "hubot", null, null);
+    roster.update(RosterIndex.builder()
+      .addOrganization(new GsonTeams.GsonOrganization("SonarSource"), Arrays.asList(octocat, hubot),
+        singletonMap(new GsonTeams.GsonTeam("developers", new GsonTeams.GsonOrganization()), singletonList(octocat)))
+      .build(500L));
+  }
+
+  @Test
+  public void pattern() {
+    assertThat(underTest.doGetPattern().matches("/authgithub/webhook")).isTrue();
+    assertThat(underTest.doGetPattern().matches("/api/authgithub/metrics")).isFalse();
+  }
+
+  @Test
+  public void organization_member_removed_evicts_membership_and_teams_of_member() throws Exception {
+    post("organization", "organization_member_removed.json");
+
+    verify(response).setStatus(204);
+    assertThat(membershipCache.get("sonarsource", "octocat")).isNull();
+    assertThat(membershipCache.get("sonarsource", "hubot")).isTrue();
+    assertThat(membershipCache.get("github", "octocat")).isTrue();
+    assertThat(cachedTeams("octocat")).isNull();
+    assertThat(cachedTeams("hubot")).isNotNull();
+    assertThat(roster.isMember("sonarsource", "octocat")).isFalse();
+    assertThat(roster.isMember("sonarsource", "hubot")).isTrue();
+    verify(gitHubRestClient).evictUser("octocat");
+    verifyZeroInteractions(chain);
+  }
+
+  @Test
+  public void organization_member_invited_evicts_nothing() throws Exception {
+    post("organization", "organization_member_invited.json");
+
+    verify(response).setStatus(204);
+    assertThat(membershipCache.get("sonarsource", "octocat")).isTrue();
+    assertThat(cachedTeams("octocat")).isNotNull();
+    verify(gitHubRestClient, never()).evictUser(anyString());
+  }
+
+  @Test
+  public void organization_renamed_evicts_organization() throws Exception {
+    membershipCache.put("SonarSourceOld", "octocat", true);
+
+    post("organization", "organization_renamed.json");
+
+    assertThat(membershipCache.get("sonarsourceold", "octocat")).isNull();
+    assertThat(membershipCache.get("sonarsource", "hubot")).isNull();
+    assertThat(membershipCache.get("github", "octocat")).isTrue();
+    assertThat(cachedTeams("octocat")).isNull();
+    assertThat(cachedTeams("monalisa")).isNotNull();
+    assertThat(roster.isMember("sonarsource", "hubot")).isFalse();
+    verify(gitHubRestClient).evictOrganization("SonarSourceOld");
+    verify(gitHubRestClient).evictOrganization("SonarSource");
+  }
+
+  @Test
+  public void team_membership_removed_evicts_teams_of_member_only() throws Exception {
+    post("membership", "membership_removed.json");
+
+    verify(response).setStatus(204);
+    assertThat(cachedTeams("octocat")).isNull();
+    assertThat(cachedTeams("hubot")).isNotNull();
+    assertThat(membershipCache.get("sonarsource", "octocat")).isTrue();
+    assertThat(roster.teams(gitHubSettings.configuration(), "octocat")).isNull();
+    assertThat(roster.teams(gitHubSettings.configuration(), "hubot")).isEmpty();
+    assertThat(roster.isMember("sonarsource", "octocat")).isTrue();
+    verify(gitHubRestClient).evictUser("octocat");
+  }
+
+  @Test
+  public void team_deleted_evicts_teams_of_its_members() throws Exception {
+    post("team", "team_deleted.json");
+
+    assertThat(cachedTeams("octocat")).isNull();
+    assertThat(cachedTeams("hubot")).as("member of another team").isNotNull();
+    assertThat(cachedTeams("monalisa")).as("member of a team with the same name in another organization").isNotNull();
+    assertThat(roster.teams(gitHubSettings.configuration(), "hubot")).isNull();
+    assertThat(roster.isMember("sonarsource", "octocat")).isTrue();
+    verify(gitHubRestClient).evictTeam("SonarSource", "developers");
+  }
+
+  @Test
+  public void team_renamed_evicts_teams_of_organization() throws Exception {
+    post("team", "team_edited.json");
+
+    assertThat(cachedTeams("octocat")).isNull();
+    assertThat(cachedTeams("hubot")).isNull();
+    assertThat(cachedTeams("monalisa")).isNotNull();
+    verify(gitHubRestClient).evictOrganization("SonarSource");
+  }
+
+  @Test
+  public void ping_is_accepted() throws Exception {
+    post("ping", "ping.json");
+
+    verify(response).setStatus(204);
+  }
+
+  @Test
+  public void index_built_after_event_is_used() throws Exception {
+    when(system2.now()).thenReturn(2_000L);
+    post("organization", "organization_member_removed.json");
+    assertThat(roster.isMember("sonarsource", "octocat")).isFalse();
+
+    GsonUser octocat = new GsonUser("1", "octocat", null, null);
+    roster.update(RosterIndex.builder().addOrganization(new GsonTeams.GsonOrganization("SonarSource"), singletonList(octocat),
+      emptyMap()).build(2_500L));
+
+    assertThat(roster.isMember("sonarsource", "octocat")).isTrue();
+  }
+
+  @Test
+  public void reject_invalid_signature() throws Exception {
+    byte[] payload = payload("organization_member_removed.json");
+
+    underTest.doFilter(request("POST", "organization", payload, "sha256=" + hex(GitHubWebhookFilter.hmac("another secret", payload))), response, chain);
+
+    verify(response).setStatus(401);
+    assertThat(membershipCache.get("sonarsource", "octocat")).isTrue();
+  }
+
+  @Test
+  public void reject_missing_signature() throws Exception {
+    underTest.doFilter(request("POST", "organization", payload("organization_member_removed.json"), null), response, chain);
+
+    verify(response).setStatus(401);
+    assertThat(membershipCache.get("sonarsource", "octocat")).isTrue();
+  }
+
+  @Test
+  public void reject_modified_payload() throws Exception {
+    byte[] payload = payload("organization_member_removed.json");
+    String signature = signature(payload);
+    payload[payload.length - 3] = ' ';
+
+    underTest.doFilter(request("POST", "organization", payload, signature), response, chain);
+
+    verify(response).setStatus(401);
+  }
+
+  @Test
+  public void reject_invalid_payload() throws Exception {
+    byte[] payload = "[not json".getBytes(StandardCharsets.UTF_8);
+
+    underTest.doFilter(request("POST", "organization", payload, signature(payload)), response, chain);
+
+    verify(response).setStatus(400);
+  }
+
+  @Test
+  public void reject_too_large_payload() throws Exception {
+    byte[] payload = new byte[GitHubWebhookFilter.MAX_PAYLOAD_SIZE + 1];
+
+    underTest.doFilter(request("POST", "organization", payload, signature(payload)), response, chain);
+
+    verify(response).setStatus(413);
+  }
+
+  @Test
+  public void reject_get() throws Exception {
+    underTest.doFilter(request("GET", null, new byte[0], null), response, chain);
+
+    verify(response).setStatus(405);
+  }
+
+  @Test
+  public void not_found_when_secret_is_not_configured() throws Exception {
+    settings.removeProperty("sonar.auth.github.webhook.secret.secured");
+
+    post("organization", "organization_member_removed.json");
+
+    verify(response).setStatus(404);
+    assertThat(membershipCache.get("sonarsource", "octocat")).isTrue();
+  }
+
+  @Test
+  public void signature_of_github_documentation() {
+    byte[] payload = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+
+    assertThat(GitHubWebhookFilter.isSignatureValid(SECRET, payload, "sha256=757107ea0eb2509fc211221cce984b8a37570b6d7586c22c46f4379c8b043e17")).isTrue();
+    assertThat(GitHubWebhookFilter.isSignatureValid(SECRET, payload, "sha256=757107ea0eb2509fc211221cce984b8a37570b6d7586c22c46f4379c8b043e18")).isFalse();
+    assertThat(GitHubWebhookFilter.isSignatureValid(SECRET, payload, "757107ea0eb2509fc211221cce984b8a37570b6d7586c22c46f4379c8b043e17")).isFalse();
+  }
+
+  private void post(String event, String payloadFile) throws Exception {
+    byte[] payload = payload(payloadFile);
+    underTest.doFilter(request("POST", event, payload, signature(payload)), response, chain);
+  }
+
+  private byte[] payload(String file) throws IOException {
+    try (InputStream json = getClass().getResourceAsStream("GitHubWebhookFilterTest/" + file)) {
+      return IOUtils.toByteArray(json);
+    }
+  }
+
+  private static HttpServletRequest request(String method, String event, byte[] payload, String signature) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getMethod()).thenReturn(method);
+    when(request.getHeader("X-GitHub-Event")).thenReturn(event);
+    when(request.getHeader("X-Hub-Signature-256")).thenReturn(signature);
+    ByteArrayInputStream body = new ByteArrayInputStream(payload);
+    when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() {
+        return body.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        return body.read(b, off, len);
+      }
+    });
+    return request;
+  }
+
+  private static String signature(byte[] payload) {
+    return "sha256=" + hex(GitHubWebhookFilter.hmac(SECRET, payload));
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private void cacheTeams(String login, GsonTeams.GsonTeam... teams) throws Exception {
+    await(teamsCache.get(login, Deadline.NONE, deadline -> completedFuture(Arrays.asList(teams))));
+  }
+
+  /**
+   * null if the teams are not cached anymore
+   */
+  private List<GsonTeams.GsonTeam> cachedTeams(String login) throws Exception {
+    return await(teamsCache.get(login, Deadline.NONE, deadline -> completedFuture(null)));
+  }
+
+  private static GsonTeams.GsonTeam team(String organization, String slug) {
+    return new GsonTeams.GsonTeam(slug, new GsonTeams.GsonOrganization(organization));
+  }
+}
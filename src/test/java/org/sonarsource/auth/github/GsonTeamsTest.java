@@ -19,13 +19,20 @@
  */
 package org.sonarsource.auth.github;
 
+import com.google.gson.JsonSyntaxException;
+import java.io.StringReader;
 import java.util.List;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class GsonTeamsTest {
 
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
   @Test
   public void parse_one_team() throws Exception {
     List<GsonTeams.GsonTeam> underTest = GsonTeams.parse(
@@ -65,6 +72,36 @@ public class GsonTeamsTest {
     assertThat(underTest).hasSize(2);
   }
 
+  @Test
+  public void skip_unused_fields() throws Exception {
+    List<GsonTeams.GsonTeam> underTest = GsonTeams.parse(new StringReader(
+      "[\n" +
+        "  {\n" +
+        "    \"id\": 1,\n" +
+        "    \"slug\": \"developers\",\n" +
+        "    \"parent\": null,\n" +
+        "    \"organization\": {\n" +
+        "      \"id\": 2,\n" +
+        "      \"plan\": {\"name\": \"team\", \"seats\": [1, 2, {\"login\": \"ignored\"}]},\n" +
+        "      \"login\": \"SonarSource\",\n" +
+        "      \"has_organization_projects\": true\n" +
+        "    },\n" +
+        "    \"members_count\": 3\n" +
+        "  }\n" +
+        "]"));
+
+    assertThat(underTest).hasSize(1);
+    assertThat(underTest.get(0).getId()).isEqualTo("developers");
+    assertThat(underTest.get(0).getOrganizationId()).isEqualTo("SonarSource");
+  }
+
+  @Test
+  public void fail_on_malformed_json() {
+    thrown.expect(JsonSyntaxException.class);
+
+    GsonTeams.parse("[{\"slug\": \"developers\"");
+  }
+
   @Test
   public void should_have_no_arg_constructor() {
     new GsonTeams.GsonTeam();
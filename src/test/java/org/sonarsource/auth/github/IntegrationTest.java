@@ -19,19 +19,38 @@
  */
 package org.sonarsource.auth.github;
 
+import com.github.scribejava.core.exceptions.OAuthException;
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
 import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
 import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.api.SonarQubeSide;
 import org.sonar.api.SonarRuntime;
 import org.sonar.api.config.PropertyDefinitions;
@@ -44,6 +63,7 @@ import org.sonar.api.utils.Version;
 
 import static java.lang.String.format;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -55,17 +75,27 @@ public class IntegrationTest {
   @Rule
   public MockWebServer github = new MockWebServer();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   // load settings with default values
   private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
   private GitHubSettings gitHubSettings = new GitHubSettings(settings);
   private SonarRuntime sonarRuntime = SonarRuntimeImpl.forSonarQube(Version.parse("7.2"), SonarQubeSide.SERVER);
   private UserIdentityFactoryImpl userIdentityFactory = new UserIdentityFactoryImpl(gitHubSettings, sonarRuntime);
   private ScribeGitHubApi scribeApi = new ScribeGitHubApi(gitHubSettings);
-  private GitHubRestClient gitHubRestClient = new GitHubRestClient(gitHubSettings);
+  private GitHubHttpTransport httpTransport = new GitHubHttpTransport(gitHubSettings);
+  private ScribeServiceCache scribeServices = new ScribeServiceCache(scribeApi, httpTransport);
+  private GitHubExecutor executor = new GitHubExecutor();
+  private GitHubCircuitBreaker circuitBreaker = new GitHubCircuitBreaker(gitHubSettings);
+  private GitHubMetrics metrics = new GitHubMetrics();
+  private GitHubRoster roster = new GitHubRoster(gitHubSettings);
+  private GitHubRestClient gitHubRestClient = new GitHubRestClient(gitHubSettings, executor, circuitBreaker, metrics);
 
   private String gitHubUrl;
 
-  private GitHubIdentityProvider underTest = new GitHubIdentityProvider(gitHubSettings, userIdentityFactory, scribeApi, gitHubRestClient);
+  private GitHubAppTokens appTokens = new GitHubAppTokens(gitHubSettings, gitHubRestClient, scribeServices);
+  private GitHubIdentityProvider underTest = new GitHubIdentityProvider(gitHubSettings, userIdentityFactory, scribeServices, gitHubRestClient, new GitHubGraphQLClient(gitHubSettings, circuitBreaker, metrics), executor, circuitBreaker, metrics, roster, appTokens);
 
   @Before
   public void enable() {
@@ -137,6 +167,55 @@ public class IntegrationTest {
     assertThat(profileGitHubRequest.getPath()).isEqualTo("/user");
   }
 
+  @Test
+  public void callback_records_latencies_and_counters() {
+    github.enqueue(newSuccessfulAccessTokenResponse());
+    github.enqueue(new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+
+    assertThat(metrics.requests()).containsOnlyKeys("User");
+    assertThat(metrics.requests().get("User").count()).isEqualTo(1);
+    assertThat(metrics.phases()).containsOnlyKeys("csrf", "accessToken", "user", "membership", "authenticate", "callback");
+    assertThat(metrics.statusCodes()).containsOnly(entry(200, 1L));
+    assertThat(metrics.pages()).isEqualTo(1);
+    assertThat(metrics.bytesRead()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void callback_records_requests_which_time_out() throws Exception {
+    settings.setProperty("sonar.auth.github.http.readTimeout", 200);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+    github.setDispatcher(new PathDispatcher(responses));
+    Path file = temp.newFile("auth.jfr").toPath();
+
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrEvents.REQUEST_EVENT);
+      recording.start();
+      try {
+        underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+        fail("exception expected");
+      } catch (IllegalStateException e) {
+        assertThat(e).hasCauseInstanceOf(SocketTimeoutException.class);
+      }
+      recording.stop();
+      recording.dump(file);
+    }
+
+    assertThat(metrics.requests()).containsOnlyKeys("User");
+    assertThat(metrics.requests().get("User").count()).isEqualTo(1);
+    assertThat(metrics.requests().get("User").max()).isGreaterThanOrEqualTo(200_000L);
+    assertThat(metrics.statusCodes()).containsOnly(entry(GitHubMetrics.NO_RESPONSE, 1L));
+    List<RecordedEvent> requests = RecordingFile.readAllEvents(file).stream()
+      .filter(e -> e.getEventType().getName().equals(JfrEvents.REQUEST_EVENT))
+      .collect(Collectors.toList());
+    assertThat(requests).hasSize(1);
+    assertThat(requests.get(0).getString("endpoint")).isEqualTo("User");
+    assertThat(requests.get(0).getInt("statusCode")).isEqualTo(GitHubMetrics.NO_RESPONSE);
+  }
+
   @Test
   public void should_retrieve_private_primary_verified_email_address() {
     github.enqueue(newSuccessfulAccessTokenResponse());
@@ -381,6 +460,669 @@ public class IntegrationTest {
     }
   }
 
+  @Test
+  public void callback_fetches_membership_emails_and_teams_concurrently() {
+    settings.setProperty("sonar.auth.github.organizations", "example");
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":null}"));
+    responses.put("/orgs/example/members/octocat", new MockResponse().setResponseCode(204));
+    responses.put("/user/emails", new MockResponse().setBody("[{\"email\": \"octocat@github.com\", \"verified\": true, \"primary\": true}]"));
+    responses.put("/user/teams?per_page=100", new MockResponse().setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getEmail()).isEqualTo("octocat@github.com");
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/developers");
+    assertThat(callbackContext.redirectedToRequestedPage.get()).isTrue();
+    assertThat(github.getRequestCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void callback_fetches_pages_of_teams_concurrently_when_last_page_is_known() throws Exception {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/user/teams?per_page=100", new MockResponse()
+      .setHeader("Link", "<" + gitHubUrl + "/user/teams?per_page=100&page=2>; rel=\"next\", <" + gitHubUrl + "/user/teams?per_page=100&page=6>; rel=\"last\"")
+      .setBody("[{\"slug\": \"team-1\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    for (int page = 2; page <= 6; page++) {
+      responses.put("/user/teams?per_page=100&page=" + page, new MockResponse()
+        .setBodyDelay(50, TimeUnit.MILLISECONDS)
+        .setBody("[{\"slug\": \"team-" + page + "\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    }
+    github.setDispatcher(new PathDispatcher(responses));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/team-1", "SonarSource/team-2", "SonarSource/team-3",
+      "SonarSource/team-4", "SonarSource/team-5", "SonarSource/team-6");
+    assertThat(github.getRequestCount()).isEqualTo(8);
+
+    // pages are kept in order
+    OAuth20Service scribe = scribeServices.get("the_id", "the_secret", CALLBACK_URL, null);
+    assertThat(gitHubRestClient.getTeams(scribe, new OAuth2AccessToken("another-token"), "octocat", Deadline.NONE))
+      .extracting(GsonTeams.GsonTeam::getId)
+      .containsExactly("team-1", "team-2", "team-3", "team-4", "team-5", "team-6");
+  }
+
+  @Test
+  public void pages_of_teams_are_fetched_when_pool_has_a_single_thread() throws Exception {
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/user/teams?per_page=100", new MockResponse()
+      .setHeader("Link", "<" + gitHubUrl + "/user/teams?per_page=100&page=2>; rel=\"next\", <" + gitHubUrl + "/user/teams?per_page=100&page=3>; rel=\"last\"")
+      .setBody("[{\"slug\": \"team-1\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    for (int page = 2; page <= 3; page++) {
+      responses.put("/user/teams?per_page=100&page=" + page, new MockResponse()
+        .setBody("[{\"slug\": \"team-" + page + "\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    }
+    github.setDispatcher(new PathDispatcher(responses));
+    GitHubExecutor singleThread = new GitHubExecutor(1, false);
+    try {
+      GitHubRestClient client = new GitHubRestClient(gitHubSettings, singleThread, circuitBreaker, metrics);
+      OAuth20Service scribe = scribeServices.get("the_id", "the_secret", CALLBACK_URL, null);
+
+      // the only pool thread fetches the pages, the helpers it submits are queued behind it
+      CompletableFuture<List<GsonTeams.GsonTeam>> teams = client.getTeamsAsync(scribe, new OAuth2AccessToken("token"), "octocat", Deadline.NONE);
+
+      assertThat(teams.get(10, TimeUnit.SECONDS)).extracting(GsonTeams.GsonTeam::getId).containsExactly("team-1", "team-2", "team-3");
+      assertThat(github.getRequestCount()).isEqualTo(3);
+    } finally {
+      singleThread.stop();
+    }
+  }
+
+  @Test
+  public void callback_follows_next_links_when_last_page_is_not_known() {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/user/teams?per_page=100", new MockResponse()
+      .setHeader("Link", "<" + gitHubUrl + "/user/teams?per_page=100&cursor=abc>; rel=\"next\"")
+      .setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    responses.put("/user/teams?per_page=100&cursor=abc", new MockResponse()
+      .setBody("[{\"slug\": \"admins\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/developers", "SonarSource/admins");
+    assertThat(github.getRequestCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void callback_does_not_request_teams_when_rate_limit_is_low() {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    settings.setProperty("sonar.auth.github.rateLimit.reserve", 100);
+    String reset = String.valueOf(System.currentTimeMillis() / 1_000L + 3_600L);
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse()
+      .setHeader("X-RateLimit-Remaining", "99")
+      .setHeader("X-RateLimit-Reset", reset)
+      .setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    // groups are not synchronized
+    assertThat(callbackContext.userIdentity.shouldSyncGroups()).isFalse();
+    assertThat(github.getRequestCount()).isEqualTo(2);
+    assertThat(gitHubRestClient.rateLimits().lowestRemaining()).isEqualTo(OptionalLong.of(99));
+  }
+
+  @Test
+  public void callback_uses_teams_of_previous_login_when_rate_limit_is_low() {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    settings.setProperty("sonar.auth.github.rateLimit.reserve", 100);
+    String reset = String.valueOf(System.currentTimeMillis() / 1_000L + 3_600L);
+
+    Map<String, MockResponse> firstLogin = new HashMap<>();
+    firstLogin.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    firstLogin.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    firstLogin.put("/user/teams?per_page=100", new MockResponse()
+      .setHeader("ETag", "\"teams-etag\"")
+      .setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(firstLogin));
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+
+    Map<String, MockResponse> secondLogin = new HashMap<>(firstLogin);
+    secondLogin.put("/user", new MockResponse()
+      .setHeader("X-RateLimit-Remaining", "10")
+      .setHeader("X-RateLimit-Reset", reset)
+      .setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    secondLogin.put("/user/teams?per_page=100", new MockResponse().setResponseCode(500));
+    github.setDispatcher(new PathDispatcher(secondLogin));
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/developers");
+    assertThat(github.getRequestCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void callback_keeps_rate_limit_of_user_across_access_tokens() {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    settings.setProperty("sonar.auth.github.rateLimit.reserve", 100);
+    String reset = String.valueOf(System.currentTimeMillis() / 1_000L + 3_600L);
+
+    Map<String, MockResponse> firstLogin = new HashMap<>();
+    firstLogin.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    firstLogin.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    firstLogin.put("/user/teams?per_page=100", new MockResponse()
+      .setHeader("ETag", "\"teams-etag\"")
+      .setHeader("X-RateLimit-Remaining", "10")
+      .setHeader("X-RateLimit-Reset", reset)
+      .setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(firstLogin));
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+
+    // GitHub issues a new access token at each login
+    Map<String, MockResponse> secondLogin = new HashMap<>(firstLogin);
+    secondLogin.put("/login/oauth/access_token", new MockResponse().setBody("access_token=0123456789abcdef0123456789abcdef01234567&scope=user%2Cgist&token_type=bearer"));
+    github.setDispatcher(new PathDispatcher(secondLogin));
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    // teams are not requested again
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/developers");
+    assertThat(github.getRequestCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void callback_throws_ISE_if_rate_limit_is_exceeded() {
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse()
+      .setResponseCode(403)
+      .setHeader("X-RateLimit-Remaining", "0")
+      .setHeader("X-RateLimit-Reset", "1600000000")
+      .setBody("{\"message\": \"API rate limit exceeded\"}"));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    try {
+      underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+      fail("exception expected");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("Fail to execute request '" + gitHubSettings.apiURL() + "user'. GitHub API rate limit is exceeded until 2020-09-13T12:26:40Z");
+    }
+  }
+
+  @Test
+  public void callback_records_rate_limit_of_rejected_profile_request() {
+    String reset = String.valueOf(System.currentTimeMillis() / 1_000L + 3_600L);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse()
+      .setResponseCode(429)
+      .setHeader("X-RateLimit-Remaining", "0")
+      .setHeader("X-RateLimit-Reset", reset)
+      .setBody("{\"message\": \"API rate limit exceeded\"}"));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    try {
+      underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+      fail("exception expected");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).contains("GitHub API rate limit is exceeded");
+    }
+    assertThat(gitHubRestClient.rateLimits().lowestRemaining()).isEqualTo(OptionalLong.of(0));
+  }
+
+  @Test
+  public void callback_fails_immediately_when_github_is_not_available() {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 50);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setResponseCode(503));
+    github.setDispatcher(new PathDispatcher(responses));
+    // each login sends a successful and a failed request
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE / 2; i++) {
+      try {
+        underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+        fail("exception expected");
+      } catch (IllegalStateException e) {
+      }
+    }
+    int requestCount = github.getRequestCount();
+
+    try {
+      underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+      fail("exception expected");
+    } catch (UnauthorizedException e) {
+      assertThat(e.getMessage()).isEqualTo("GitHub is not available at " + github.getHostName() + ":" + github.getPort() + ", please retry later");
+    }
+    assertThat(github.getRequestCount()).isEqualTo(requestCount);
+  }
+
+  @Test
+  public void callback_with_invalid_code_does_not_suspend_logins() {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 50);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", new MockResponse()
+      .setBody("{\"error\":\"bad_verification_code\",\"error_description\":\"The code passed is incorrect or expired.\"}"));
+    github.setDispatcher(new PathDispatcher(responses));
+    for (int i = 0; i < 2 * GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      try {
+        underTest.callback(new DumbCallbackContext(newRequest("the-replayed-code")));
+        fail("exception expected");
+      } catch (OAuthException e) {
+        assertThat(e.getMessage()).startsWith("Response body is incorrect");
+      }
+    }
+
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getProviderLogin()).isEqualTo("octocat");
+    assertThat(circuitBreaker.isOpen(gitHubUrl)).isFalse();
+  }
+
+  @Test
+  public void callback_fails_when_github_api_is_not_available_even_if_data_of_previous_login_is_cached() {
+    settings.setProperty("sonar.auth.github.circuitBreaker.failureRateThreshold", 100);
+    settings.setProperty("sonar.auth.github.circuitBreaker.fallbackToCache", true);
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse()
+      .setHeader("ETag", "\"user-etag\"")
+      .setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/user/teams?per_page=100", new MockResponse()
+      .setHeader("ETag", "\"teams-etag\"")
+      .setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(responses));
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+
+    // the token exchange and the API are on the same mock server, the token is exchanged through another host name
+    // so that only the circuit of the API is open
+    String webUrl = "localhost".equals(github.getHostName()) ? gitHubUrl.replace("localhost", "127.0.0.1") : format("http://localhost:%d", github.getPort());
+    settings.setProperty("sonar.auth.github.webUrl", webUrl);
+    for (int i = 0; i < GitHubCircuitBreaker.WINDOW_SIZE; i++) {
+      try {
+        circuitBreaker.call(gitHubUrl, () -> {
+          throw new IOException("Connection reset");
+        });
+      } catch (IOException e) {
+        // expected
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    int requestCount = github.getRequestCount();
+
+    try {
+      underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+      fail("exception expected");
+    } catch (UnauthorizedException e) {
+      assertThat(e.getMessage()).isEqualTo("GitHub is not available at " + github.getHostName() + ":" + github.getPort() + ", please retry later");
+    }
+    // only the access token is requested, the profile of the previous login is not kept as it was bound to another access token
+    assertThat(github.getRequestCount()).isEqualTo(requestCount + 1);
+  }
+
+  @Test
+  public void callback_uses_teams_of_previous_login_when_teams_are_not_received_before_deadline() {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    settings.setProperty("sonar.auth.github.loginTimeout", 500);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/user/teams?per_page=100", new MockResponse()
+      .setHeader("ETag", "\"teams-etag\"")
+      .setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(responses));
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+
+    responses.put("/user/teams?per_page=100", new MockResponse()
+      .setBodyDelay(5, TimeUnit.SECONDS)
+      .setBody("[{\"slug\": \"admins\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    long start = System.nanoTime();
+    underTest.callback(callbackContext);
+
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000L);
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/developers");
+  }
+
+  @Test
+  public void callback_throws_UnauthorizedException_when_membership_is_not_checked_before_deadline() {
+    settings.setProperty("sonar.auth.github.organizations", "example");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", "Parallel");
+    settings.setProperty("sonar.auth.github.loginTimeout", 500);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/orgs/example/members/octocat", new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    try {
+      underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+      fail("exception expected");
+    } catch (UnauthorizedException e) {
+      assertThat(e.getMessage()).isEqualTo("GitHub did not answer within 500 ms, please retry later");
+    }
+  }
+
+  @Test
+  public void callback_does_not_check_cached_membership_again() {
+    settings.setProperty("sonar.auth.github.organizations", "example");
+    settings.setProperty("sonar.auth.github.organizations.cache.positiveTtl", 600);
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/orgs/example/members/octocat", new MockResponse().setResponseCode(204));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity).isNotNull();
+    // access token and user are requested twice, membership only once
+    assertThat(github.getRequestCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void callback_answers_membership_and_teams_from_fresh_roster() {
+    settings.setProperty("sonar.auth.github.organizations", "example");
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    GsonUser octocat = new GsonUser("ABCD", "OctoCat", null, null);
+    roster.update(RosterIndex.builder()
+      .addOrganization(new GsonTeams.GsonOrganization("Example"), Collections.singletonList(octocat),
+        Collections.singletonMap(new GsonTeams.GsonTeam("developers", new GsonTeams.GsonOrganization()), Collections.singletonList(octocat)))
+      .build(System.currentTimeMillis()));
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("Example/developers");
+    // neither /orgs/example/members/octocat nor /user/teams are requested
+    assertThat(github.getRequestCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void callback_synchronizes_teams_of_all_organizations_unless_answered_by_roster() {
+    settings.setProperty("sonar.auth.github.organizations", "example");
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/orgs/example/members/octocat", new MockResponse().setResponseCode(204));
+    responses.put("/user/teams?per_page=100", new MockResponse().setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"Example\"}}," +
+      "{\"slug\": \"admins\", \"organization\": {\"login\": \"Other\"}}]"));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    DumbCallbackContext fromGitHub = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(fromGitHub);
+
+    GsonUser octocat = new GsonUser("ABCD", "octocat", null, null);
+    roster.update(RosterIndex.builder()
+      .addOrganization(new GsonTeams.GsonOrganization("Example"), Collections.singletonList(octocat),
+        Collections.singletonMap(new GsonTeams.GsonTeam("developers", new GsonTeams.GsonOrganization()), Collections.singletonList(octocat)))
+      .build(System.currentTimeMillis()));
+    DumbCallbackContext fromRoster = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(fromRoster);
+
+    assertThat(fromGitHub.userIdentity.getGroups()).containsOnly("Example/developers", "Other/admins");
+    // the roster only indexes the configured organizations
+    assertThat(fromRoster.userIdentity.getGroups()).containsOnly("Example/developers");
+    // the second login only requests the access token and the user
+    assertThat(github.getRequestCount()).isEqualTo(6);
+  }
+
+  @Test
+  public void callback_checks_membership_at_github_when_roster_is_stale() {
+    settings.setProperty("sonar.auth.github.organizations", "example");
+    settings.setProperty("sonar.auth.github.roster.maxAge", 60);
+    roster.update(RosterIndex.builder()
+      .addOrganization(new GsonTeams.GsonOrganization("example"), Collections.singletonList(new GsonUser("ABCD", "octocat", null, null)), Collections.emptyMap())
+      .build(System.currentTimeMillis() - 61_000L));
+
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    responses.put("/orgs/example/members/octocat", new MockResponse().setResponseCode(204));
+    github.setDispatcher(new PathDispatcher(responses));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity).isNotNull();
+    assertThat(github.getRequestCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void callback_checks_membership_with_a_single_paginated_request() throws InterruptedException {
+    settings.setProperty("sonar.auth.github.organizations", "first_org,second_org,Third_Org");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", GitHubSettings.MEMBERSHIP_STRATEGY_USER_ORGANIZATIONS);
+
+    github.enqueue(newSuccessfulAccessTokenResponse());
+    // response of api.github.com/user
+    github.enqueue(new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    // responses of api.github.com/user/orgs
+    github.enqueue(new MockResponse()
+      .setHeader("Link", "<" + gitHubUrl + "/user/orgs?per_page=100&page=2>; rel=\"next\", <" + gitHubUrl + "/user/orgs?per_page=100&page=2>; rel=\"last\"")
+      .setBody("[{\"login\": \"github\"}]"));
+    github.enqueue(new MockResponse().setBody("[{\"login\": \"third_org\"}]"));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity).isNotNull();
+    github.takeRequest();
+    github.takeRequest();
+    assertThat(github.takeRequest().getPath()).isEqualTo("/user/orgs?per_page=100");
+    assertThat(github.takeRequest().getPath()).isEqualTo("/user/orgs?per_page=100&page=2");
+  }
+
+  @Test
+  public void callback_rejects_user_not_in_any_of_the_user_organizations() {
+    settings.setProperty("sonar.auth.github.organizations", "first_org,second_org");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", GitHubSettings.MEMBERSHIP_STRATEGY_USER_ORGANIZATIONS);
+
+    github.enqueue(newSuccessfulAccessTokenResponse());
+    // response of api.github.com/user
+    github.enqueue(new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+    // response of api.github.com/user/orgs
+    github.enqueue(new MockResponse().setBody("[{\"login\": \"github\"}]"));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    try {
+      underTest.callback(callbackContext);
+      fail("exception expected");
+    } catch (UnauthorizedException e) {
+      assertThat(e.getMessage()).isEqualTo("'octocat' must be a member of at least one organization: 'first_org', 'second_org'");
+    }
+  }
+
+  @Test
+  public void callback_with_graphql_checks_membership_with_a_single_query() throws InterruptedException {
+    settings.setProperty("sonar.auth.github.apiMode", GitHubSettings.API_MODE_GRAPHQL);
+    settings.setProperty("sonar.auth.github.organizations", "SonarSource");
+
+    github.enqueue(newSuccessfulAccessTokenResponse());
+    // response of api.github.com/graphql
+    github.enqueue(new MockResponse().setBody("{\"data\": {\"viewer\": {\"databaseId\": 1234, \"login\": \"octocat\", \"name\": \"monalisa octocat\", " +
+      "\"email\": \"octocat@github.com\", \"organizations\": {\"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}, " +
+      "\"nodes\": [{\"login\": \"sonarsource\"}]}}}}"));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getProviderId()).isEqualTo("1234");
+    assertThat(callbackContext.userIdentity.getLogin()).isEqualTo("octocat@github");
+    assertThat(callbackContext.userIdentity.getName()).isEqualTo("monalisa octocat");
+    assertThat(callbackContext.userIdentity.getEmail()).isEqualTo("octocat@github.com");
+    assertThat(github.getRequestCount()).isEqualTo(2);
+    github.takeRequest();
+    RecordedRequest graphQLRequest = github.takeRequest();
+    assertThat(graphQLRequest.getMethod()).isEqualTo("POST");
+    assertThat(graphQLRequest.getPath()).isEqualTo("/graphql");
+  }
+
+  @Test
+  public void callback_with_graphql_rejects_user_not_member_of_organizations() {
+    settings.setProperty("sonar.auth.github.apiMode", GitHubSettings.API_MODE_GRAPHQL);
+    settings.setProperty("sonar.auth.github.organizations", "first_org,second_org");
+
+    github.enqueue(newSuccessfulAccessTokenResponse());
+    // response of api.github.com/graphql
+    github.enqueue(new MockResponse().setBody("{\"data\": {\"viewer\": {\"databaseId\": 1234, \"login\": \"octocat\", \"name\": \"\", " +
+      "\"email\": \"\", \"organizations\": {\"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}, \"nodes\": []}}}}"));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    try {
+      underTest.callback(callbackContext);
+      fail("exception expected");
+    } catch (UnauthorizedException e) {
+      assertThat(e.getMessage()).isEqualTo("'octocat' must be a member of at least one organization: 'first_org', 'second_org'");
+    }
+  }
+
+  @Test
+  public void callback_with_graphql_paginates_organizations_and_teams() {
+    settings.setProperty("sonar.auth.github.apiMode", GitHubSettings.API_MODE_GRAPHQL);
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+
+    github.setDispatcher(new GraphQLDispatcher());
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getName()).isEqualTo("octocat");
+    assertThat(callbackContext.userIdentity.getEmail()).isEqualTo("octocat@github.com");
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/developers", "SonarSource/qa", "SonarQubeCommunity/sonarsource-developers");
+    assertThat(metrics.requests()).containsKey("GraphQL");
+    assertThat(metrics.requests().get("GraphQL").count()).isGreaterThan(1L);
+    assertThat(metrics.bytesRead()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void callback_with_graphql_throws_ISE_on_graphql_errors() {
+    settings.setProperty("sonar.auth.github.apiMode", GitHubSettings.API_MODE_GRAPHQL);
+
+    github.enqueue(newSuccessfulAccessTokenResponse());
+    github.enqueue(new MockResponse().setBody("{\"errors\": [{\"message\": \"Bad credentials\"}]}"));
+
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    try {
+      underTest.callback(callbackContext);
+      fail("exception expected");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).isEqualTo("Fail to execute request '" + gitHubSettings.graphQLURL() + "'. GraphQL errors: [{\"message\":\"Bad credentials\"}]");
+    }
+  }
+
+  @Test
+  public void callback_reuses_connections_with_pooled_http_transport() {
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_POOLED);
+    settings.setProperty("sonar.auth.github.organizations", "first_org,second_org");
+
+    for (int i = 0; i < 2; i++) {
+      github.enqueue(newSuccessfulAccessTokenResponse());
+      // response of api.github.com/user
+      github.enqueue(new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":\"octocat@github.com\"}"));
+      // responses of api.github.com/orgs/{org}/members/octocat
+      github.enqueue(new MockResponse().setResponseCode(404).setBody("{}"));
+      github.enqueue(new MockResponse().setResponseCode(204));
+
+      DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+      underTest.callback(callbackContext);
+      assertThat(callbackContext.userIdentity).isNotNull();
+    }
+
+    assertThat(httpTransport.connectionReuseRatio()).isGreaterThan(0.5);
+    assertThat(httpTransport.connectionCount()).isGreaterThan(0);
+    httpTransport.stop();
+  }
+
+  @Test
+  public void callback_sends_conditional_requests_for_data_fetched_by_previous_login() throws InterruptedException {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+
+    Map<String, MockResponse> firstLogin = new HashMap<>();
+    firstLogin.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    firstLogin.put("/user", new MockResponse().setHeader("ETag", "\"user-etag\"")
+      .setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":null}"));
+    firstLogin.put("/user/emails", new MockResponse().setBody("[{\"email\": \"octocat@github.com\", \"verified\": true, \"primary\": true}]"));
+    firstLogin.put("/user/teams?per_page=100", new MockResponse().setHeader("etag", "\"teams-etag\"")
+      .setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(firstLogin));
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+    for (int i = 0; i < 4; i++) {
+      assertThat(github.takeRequest().getHeader("If-None-Match")).isNull();
+    }
+
+    Map<String, MockResponse> secondLogin = new HashMap<>();
+    secondLogin.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    secondLogin.put("/user", new MockResponse().setHeader("ETag", "\"user-etag\"")
+      .setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":null}"));
+    secondLogin.put("/user/emails", new MockResponse().setBody("[{\"email\": \"octocat@sonarsource.com\", \"verified\": true, \"primary\": true}]"));
+    secondLogin.put("/user/teams?per_page=100", new MockResponse().setResponseCode(304));
+    github.setDispatcher(new PathDispatcher(secondLogin));
+    DumbCallbackContext callbackContext = new DumbCallbackContext(newRequest("the-verifier-code"));
+    underTest.callback(callbackContext);
+
+    assertThat(callbackContext.userIdentity.getName()).isEqualTo("monalisa octocat");
+    assertThat(callbackContext.userIdentity.getEmail()).isEqualTo("octocat@sonarsource.com");
+    assertThat(callbackContext.userIdentity.getGroups()).containsOnly("SonarSource/developers");
+    Map<String, String> conditionalHeaders = new HashMap<>();
+    for (int i = 0; i < 4; i++) {
+      RecordedRequest request = github.takeRequest();
+      conditionalHeaders.put(request.getPath(), request.getHeader("If-None-Match"));
+    }
+    // GitHub issues a new access token at each login, so the profile is never conditional
+    assertThat(conditionalHeaders.get("/user")).isNull();
+    assertThat(conditionalHeaders.get("/user/teams?per_page=100")).isEqualTo("\"teams-etag\"");
+    assertThat(conditionalHeaders.get("/user/emails")).isNull();
+  }
+
+  @Test
+  public void evicted_data_of_previous_login_is_not_used() {
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    Map<String, MockResponse> responses = new HashMap<>();
+    responses.put("/login/oauth/access_token", newSuccessfulAccessTokenResponse());
+    responses.put("/user", new MockResponse().setBody("{\"id\":\"ABCD\", \"login\":\"octocat\", \"name\":\"monalisa octocat\",\"email\":null}"));
+    responses.put("/user/emails", new MockResponse().setHeader("ETag", "\"emails-etag\"")
+      .setBody("[{\"email\": \"octocat@github.com\", \"verified\": true, \"primary\": true}]"));
+    responses.put("/user/teams?per_page=100", new MockResponse().setHeader("ETag", "\"teams-etag\"")
+      .setBody("[{\"slug\": \"developers\", \"organization\": {\"login\": \"SonarSource\"}}]"));
+    github.setDispatcher(new PathDispatcher(responses));
+    underTest.callback(new DumbCallbackContext(newRequest("the-verifier-code")));
+    assertThat(gitHubRestClient.getCachedTeams("octocat")).hasSize(1);
+
+    gitHubRestClient.evictTeam("sonarsource", "admins");
+    assertThat(gitHubRestClient.getCachedTeams("octocat")).hasSize(1);
+    gitHubRestClient.evictOrganization("sonarsource");
+    assertThat(gitHubRestClient.getCachedTeams("octocat")).isNull();
+    assertThat(gitHubRestClient.getCachedEmail("octocat")).isEqualTo("octocat@github.com");
+
+    gitHubRestClient.evictUser("OctoCat");
+    assertThat(gitHubRestClient.getCachedEmail("octocat")).isNull();
+  }
+
   /**
    * Response sent by GitHub to SonarQube when generating an access token
    */
@@ -470,4 +1212,60 @@ public class IntegrationTest {
       return null;
     }
   }
+
+  /**
+   * Answers by request path, as concurrent requests do not reach the server in a predictable order
+   */
+  private static class PathDispatcher extends Dispatcher {
+    private final Map<String, MockResponse> responsesByPath;
+
+    PathDispatcher(Map<String, MockResponse> responsesByPath) {
+      this.responsesByPath = responsesByPath;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      MockResponse response = responsesByPath.get(request.getPath());
+      return response == null ? new MockResponse().setResponseCode(404) : response;
+    }
+  }
+
+  /**
+   * Answers the GraphQL queries depending on the query and the cursor
+   */
+  private static class GraphQLDispatcher extends Dispatcher {
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String body = request.getBody().readUtf8();
+      switch (request.getPath()) {
+        case "/login/oauth/access_token":
+          return newSuccessfulAccessTokenResponse();
+        case "/user/emails":
+          // the profile has no public email
+          return new MockResponse().setBody("[{\"email\": \"octocat@github.com\", \"verified\": true, \"primary\": true}]");
+        case "/graphql":
+          return dispatchGraphQL(body);
+        default:
+          return new MockResponse().setResponseCode(404);
+      }
+    }
+
+    private static MockResponse dispatchGraphQL(String body) {
+      if (body.contains("organization(login:")) {
+        return new MockResponse().setBody("{\"data\": {\"organization\": {\"teams\": {\"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}, " +
+          "\"nodes\": [{\"slug\": \"qa\"}]}}}}");
+      }
+      if (body.contains("\"cursor\":\"orgs-page-2\"")) {
+        return new MockResponse().setBody("{\"data\": {\"viewer\": {\"organizations\": {\"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}, " +
+          "\"nodes\": [{\"login\": \"SonarQubeCommunity\", \"teams\": {\"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}, " +
+          "\"nodes\": [{\"slug\": \"sonarsource-developers\"}]}}]}}}}");
+      }
+      if (body.contains("organizations(first")) {
+        return new MockResponse().setBody("{\"data\": {\"viewer\": {\"organizations\": {\"pageInfo\": {\"hasNextPage\": true, \"endCursor\": \"orgs-page-2\"}, " +
+          "\"nodes\": [{\"login\": \"SonarSource\", \"teams\": {\"pageInfo\": {\"hasNextPage\": true, \"endCursor\": \"teams-page-2\"}, " +
+          "\"nodes\": [{\"slug\": \"developers\"}]}}]}}}}");
+      }
+      return new MockResponse().setBody("{\"data\": {\"viewer\": {\"databaseId\": 1234, \"login\": \"octocat\", \"name\": \"\", \"email\": \"\"}}}");
+    }
+  }
 }
@@ -0,0 +1,69 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+
+  private LatencyHistogram underTest = new LatencyHistogram();
+
+  @Test
+  public void empty_histogram() {
+    assertThat(underTest.count()).isZero();
+    assertThat(underTest.max()).isZero();
+    assertThat(underTest.percentile(99D)).isZero();
+  }
+
+  @Test
+  public void compute_percentiles_with_bounded_error() {
+    for (long value = 1; value <= 10_000; value++) {
+      underTest.record(value);
+    }
+
+    assertThat(underTest.count()).isEqualTo(10_000);
+    assertThat(underTest.sum()).isEqualTo(50_005_000L);
+    assertThat(underTest.max()).isEqualTo(10_000);
+    assertThat(underTest.percentile(50D)).isBetween(5_000L, 5_625L);
+    assertThat(underTest.percentile(99D)).isBetween(9_900L, 10_000L);
+    assertThat(underTest.percentile(100D)).isEqualTo(10_000);
+  }
+
+  @Test
+  public void values_are_in_the_bucket_of_their_upper_bound() {
+    for (long value : new long[] {0L, 1L, 7L, 8L, 15L, 16L, 17L, 1_000L, 123_456_789L, 1L << 40, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucket(value);
+      assertThat(bucket).isEqualTo(LatencyHistogram.bucket(LatencyHistogram.upperBound(bucket)));
+      if (value < (1L << 41)) {
+        assertThat(LatencyHistogram.upperBound(bucket)).isGreaterThanOrEqualTo(value);
+      }
+    }
+  }
+
+  @Test
+  public void negative_durations_are_recorded_as_zero() {
+    underTest.record(-5L);
+
+    assertThat(underTest.count()).isEqualTo(1);
+    assertThat(underTest.percentile(50D)).isZero();
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.api.SonarQubeSide;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.internal.SonarRuntimeImpl;
+import org.sonar.api.server.authentication.OAuth2IdentityProvider;
+import org.sonar.api.server.authentication.UnauthorizedException;
+import org.sonar.api.server.authentication.UserIdentity;
+import org.sonar.api.utils.Version;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Concurrent logins against {@link FakeGitHub}. It is excluded from the default build and run by the profile
+ * "benchmarks" with a storm of thousands of logins. Each parameter can be overridden by a system property:
+ * <ul>
+ *   <li>loginStorm.logins: number of callbacks</li>
+ *   <li>loginStorm.concurrency: number of callbacks in progress at the same time</li>
+ *   <li>loginStorm.users: number of distinct users, half of them belong to the organization</li>
+ *   <li>loginStorm.teams: number of teams of each user, 100 per page</li>
+ *   <li>loginStorm.latency and loginStorm.jitter: delay of each GitHub response, in milliseconds</li>
+ *   <li>loginStorm.errorRate: ratio of GitHub responses failing with 502</li>
+ *   <li>loginStorm.rateLimit: requests allowed for each access token</li>
+ * </ul>
+ */
+public class LoginStormTest {
+
+  private static final String ORGANIZATION = "SonarSource";
+  private static final String CALLBACK_URL = "http://localhost/oauth/callback/github";
+
+  @Rule
+  public MockWebServer github = new MockWebServer();
+
+  private final int logins = Integer.getInteger("loginStorm.logins", 200);
+  private final int concurrency = Integer.getInteger("loginStorm.concurrency", 20);
+  private final int users = Integer.getInteger("loginStorm.users", 50);
+  private final int teams = Integer.getInteger("loginStorm.teams", 150);
+  private final double errorRate = Double.parseDouble(System.getProperty("loginStorm.errorRate", "0"));
+
+  private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private GitHubSettings gitHubSettings = new GitHubSettings(settings);
+  private GitHubExecutor executor = new GitHubExecutor(gitHubSettings);
+  private GitHubCircuitBreaker circuitBreaker = new GitHubCircuitBreaker(gitHubSettings);
+  private GitHubMetrics metrics = new GitHubMetrics();
+  private FakeGitHub fakeGitHub = new FakeGitHub(ORGANIZATION)
+    .setTeamsPerUser(teams)
+    .setLatency(Long.getLong("loginStorm.latency", 0L), Long.getLong("loginStorm.jitter", 0L))
+    .setErrorRate(errorRate)
+    .setRateLimit(Integer.getInteger("loginStorm.rateLimit", 5000));
+  private GitHubIdentityProvider underTest;
+
+  @Before
+  public void setUp() {
+    String gitHubUrl = format("http://%s:%d/", github.getHostName(), github.getPort());
+    fakeGitHub.setBaseUrl(gitHubUrl);
+    github.setDispatcher(fakeGitHub);
+    settings.setProperty("sonar.auth.github.clientId.secured", "the_id");
+    settings.setProperty("sonar.auth.github.clientSecret.secured", "the_secret");
+    settings.setProperty("sonar.auth.github.enabled", true);
+    settings.setProperty("sonar.auth.github.apiUrl", gitHubUrl);
+    settings.setProperty("sonar.auth.github.webUrl", gitHubUrl);
+    settings.setProperty("sonar.auth.github.groupsSync", true);
+    settings.setProperty("sonar.auth.github.organizations", ORGANIZATION);
+    settings.setProperty("sonar.auth.github.http.threads", concurrency);
+
+    ScribeServiceCache scribeServices = new ScribeServiceCache(new ScribeGitHubApi(gitHubSettings), new GitHubHttpTransport(gitHubSettings));
+    UserIdentityFactoryImpl userIdentityFactory = new UserIdentityFactoryImpl(gitHubSettings,
+      SonarRuntimeImpl.forSonarQube(Version.parse("7.2"), SonarQubeSide.SERVER));
+    GitHubRestClient gitHubRestClient = new GitHubRestClient(gitHubSettings, executor, circuitBreaker, metrics);
+    underTest = new GitHubIdentityProvider(gitHubSettings, userIdentityFactory, scribeServices, gitHubRestClient,
+      new GitHubGraphQLClient(gitHubSettings, circuitBreaker, metrics), executor, circuitBreaker, metrics, new GitHubRoster(gitHubSettings),
+      new GitHubAppTokens(gitHubSettings, gitHubRestClient, scribeServices));
+  }
+
+  @After
+  public void tearDown() {
+    executor.stop();
+  }
+
+  @Test
+  public void concurrent_logins() throws Exception {
+    LatencyHistogram latencies = new LatencyHistogram();
+    LongAdder authenticated = new LongAdder();
+    LongAdder rejected = new LongAdder();
+    LongAdder failed = new LongAdder();
+    ExecutorService browsers = Executors.newFixedThreadPool(concurrency);
+    long start = System.nanoTime();
+    try {
+      List<Future<?>> callbacks = new ArrayList<>(logins);
+      for (int i = 0; i < logins; i++) {
+        int user = i % users;
+        callbacks.add(browsers.submit(() -> {
+          StormCallbackContext context = new StormCallbackContext("user-" + user);
+          long loginStart = System.nanoTime();
+          try {
+            underTest.callback(context);
+            authenticated.increment();
+          } catch (UnauthorizedException e) {
+            rejected.increment();
+          } catch (RuntimeException e) {
+            failed.increment();
+          } finally {
+            latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - loginStart));
+          }
+        }));
+      }
+      for (Future<?> callback : callbacks) {
+        callback.get();
+      }
+    } finally {
+      browsers.shutdownNow();
+    }
+    long elapsedInNanos = System.nanoTime() - start;
+
+    Map<String, Long> callsByEndpoint = new TreeMap<>();
+    fakeGitHub.callsByEndpoint().forEach((endpoint, count) -> callsByEndpoint.put(endpoint, count.sum()));
+    System.out.println(format("Login storm: %d logins (%d authenticated, %d rejected, %d failed), concurrency %d%n" +
+      "  throughput %.1f logins/s, latency p50 %d ms, p99 %d ms, max %d ms%n" +
+      "  %.2f GitHub calls per login: %s",
+      logins, authenticated.sum(), rejected.sum(), failed.sum(), concurrency,
+      logins / (elapsedInNanos / 1_000_000_000D),
+      latencies.percentile(50) / 1000, latencies.percentile(99) / 1000, latencies.max() / 1000,
+      (double) fakeGitHub.calls() / logins, callsByEndpoint));
+
+    assertThat(latencies.count()).isEqualTo(logins);
+    if (errorRate == 0D) {
+      // users with an odd number are not members of the organization
+      assertThat(failed.sum()).isZero();
+      assertThat(authenticated.sum()).isEqualTo(countMembers());
+      // access token, user, membership, emails and pages of teams
+      assertThat(fakeGitHub.calls()).isLessThanOrEqualTo(logins * (4L + (teams + 99) / 100));
+    }
+  }
+
+  private long countMembers() {
+    long members = 0;
+    for (int i = 0; i < logins; i++) {
+      if ((i % users) % 2 == 0) {
+        members++;
+      }
+    }
+    return members;
+  }
+
+  private static class StormCallbackContext implements OAuth2IdentityProvider.CallbackContext {
+    private final HttpServletRequest request = mock(HttpServletRequest.class);
+
+    StormCallbackContext(String code) {
+      when(request.getParameter("code")).thenReturn(code);
+    }
+
+    @Override
+    public void verifyCsrfState() {
+      // the state is not checked by the fake
+    }
+
+    @Override
+    public void redirectToRequestedPage() {
+      // nothing to do
+    }
+
+    @Override
+    public void authenticate(UserIdentity userIdentity) {
+      assertThat(userIdentity.getGroups()).isNotEmpty();
+    }
+
+    @Override
+    public String getCallbackUrl() {
+      return CALLBACK_URL;
+    }
+
+    @Override
+    public HttpServletRequest getRequest() {
+      return request;
+    }
+
+    @Override
+    public HttpServletResponse getResponse() {
+      throw new UnsupportedOperationException("not used");
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LruCacheTest {
+
+  @Test
+  public void get_put_and_remove() {
+    LruCache<String, String> underTest = new LruCache<>(100);
+
+    underTest.put("octocat", "SonarSource");
+    assertThat(underTest.get("octocat")).isEqualTo("SonarSource");
+    assertThat(underTest.get("monalisa")).isNull();
+
+    underTest.remove("octocat");
+    assertThat(underTest.get("octocat")).isNull();
+  }
+
+  @Test
+  public void values() {
+    LruCache<String, String> underTest = new LruCache<>(100);
+
+    underTest.put("octocat", "SonarSource");
+    underTest.put("monalisa", "GitHub");
+
+    assertThat(underTest.values()).containsOnly("SonarSource", "GitHub");
+  }
+
+  @Test
+  public void evict_least_recently_used_entries() {
+    LruCache<Integer, Integer> underTest = new LruCache<>(1);
+
+    underTest.put(1, 1);
+    underTest.put(2, 2);
+
+    assertThat(underTest.size()).isEqualTo(1);
+    assertThat(underTest.get(1)).isNull();
+    assertThat(underTest.get(2)).isEqualTo(2);
+  }
+
+  @Test
+  public void size_is_bounded() {
+    LruCache<Integer, Integer> underTest = new LruCache<>(64);
+
+    for (int i = 0; i < 1_000; i++) {
+      underTest.put(i, i);
+    }
+
+    assertThat(underTest.size()).isLessThanOrEqualTo(64);
+  }
+
+  @Test
+  public void remove_if_and_clear() {
+    LruCache<String, String> underTest = new LruCache<>(100);
+    underTest.put("octocat/SonarSource", "member");
+    underTest.put("octocat/github", "member");
+    underTest.put("monalisa/github", "member");
+
+    underTest.removeIf(key -> key.startsWith("octocat/"));
+    assertThat(underTest.size()).isEqualTo(1);
+
+    underTest.clear();
+    assertThat(underTest.size()).isZero();
+  }
+}
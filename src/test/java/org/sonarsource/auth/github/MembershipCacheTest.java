@@ -0,0 +1,94 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MembershipCacheTest {
+
+  private Settings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private System2 system2 = mock(System2.class);
+
+  private MembershipCache underTest = new MembershipCache(new GitHubSettings(settings), system2);
+
+  @Test
+  public void nothing_is_cached_by_default() {
+    underTest.put("SonarSource", "octocat", true);
+    underTest.put("SonarSource", "monalisa", false);
+
+    assertThat(underTest.get("SonarSource", "octocat")).isNull();
+    assertThat(underTest.get("SonarSource", "monalisa")).isNull();
+  }
+
+  @Test
+  public void memberships_expire_after_their_ttl() {
+    settings.setProperty("sonar.auth.github.organizations.cache.positiveTtl", 60);
+    settings.setProperty("sonar.auth.github.organizations.cache.negativeTtl", 10);
+    when(system2.now()).thenReturn(1_000_000L);
+    underTest.put("SonarSource", "octocat", true);
+    underTest.put("SonarSource", "monalisa", false);
+
+    when(system2.now()).thenReturn(1_009_999L);
+    assertThat(underTest.get("SonarSource", "octocat")).isTrue();
+    assertThat(underTest.get("SonarSource", "monalisa")).isFalse();
+
+    when(system2.now()).thenReturn(1_010_000L);
+    assertThat(underTest.get("SonarSource", "octocat")).isTrue();
+    assertThat(underTest.get("SonarSource", "monalisa")).isNull();
+
+    when(system2.now()).thenReturn(1_060_000L);
+    assertThat(underTest.get("SonarSource", "octocat")).isNull();
+  }
+
+  @Test
+  public void keys_are_case_insensitive() {
+    settings.setProperty("sonar.auth.github.organizations.cache.positiveTtl", 60);
+    underTest.put("SonarSource", "OctoCat", true);
+
+    assertThat(underTest.get("sonarsource", "octocat")).isTrue();
+  }
+
+  @Test
+  public void evict_entries() {
+    settings.setProperty("sonar.auth.github.organizations.cache.positiveTtl", 60);
+    underTest.put("SonarSource", "octocat", true);
+    underTest.put("SonarSource", "monalisa", true);
+    underTest.put("github", "octocat", true);
+
+    underTest.evict("SonarSource", "octocat");
+    assertThat(underTest.get("SonarSource", "octocat")).isNull();
+    assertThat(underTest.get("github", "octocat")).isTrue();
+
+    underTest.evictLogin("octocat");
+    assertThat(underTest.get("github", "octocat")).isNull();
+    assertThat(underTest.get("SonarSource", "monalisa")).isTrue();
+
+    underTest.evictOrganization("sonarsource");
+    assertThat(underTest.get("SonarSource", "monalisa")).isNull();
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.OAuth2AccessToken;
+import com.github.scribejava.core.oauth.OAuth20Service;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sonarsource.auth.github.GitHubExecutor.await;
+
+public class OrganizationMembershipCheckerTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private GitHubSettings gitHubSettings = new GitHubSettings(settings);
+  private GitHubRestClient gitHubRestClient = mock(GitHubRestClient.class);
+  private GitHubExecutor executor = new GitHubExecutor();
+  private OAuth20Service scribe = mock(OAuth20Service.class);
+  private OAuth2AccessToken accessToken = new OAuth2AccessToken("token");
+  private GitHubRoster roster = mock(GitHubRoster.class);
+  private GitHubAppTokens appTokens = mock(GitHubAppTokens.class);
+
+  private OrganizationMembershipChecker underTest = new OrganizationMembershipChecker(gitHubSettings, gitHubRestClient, executor, roster, appTokens);
+
+  @After
+  public void tearDown() {
+    executor.stop();
+  }
+
+  @Test
+  public void sequential_check_stops_at_first_membership() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first,second,third");
+    when(gitHubRestClient.isOrganizationMember(scribe, accessToken, "second", "octocat", Deadline.NONE)).thenReturn(true);
+
+    assertThat(await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE))).isTrue();
+
+    verify(gitHubRestClient).isOrganizationMember(scribe, accessToken, "first", "octocat", Deadline.NONE);
+    verify(gitHubRestClient, never()).isOrganizationMember(scribe, accessToken, "third", "octocat", Deadline.NONE);
+  }
+
+  @Test
+  public void check_membership_with_installation_token_of_github_app() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first,second");
+    OAuth2AccessToken installationToken = new OAuth2AccessToken("ghs_installation");
+    when(appTokens.token("second", Deadline.NONE)).thenReturn(installationToken);
+    when(gitHubRestClient.isOrganizationMember(scribe, installationToken, "second", "octocat", Deadline.NONE)).thenReturn(true);
+
+    assertThat(await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE))).isTrue();
+
+    // the App is not installed on the first organization
+    verify(gitHubRestClient).isOrganizationMember(scribe, accessToken, "first", "octocat", Deadline.NONE);
+  }
+
+  @Test
+  public void parallel_check_accepts_any_membership() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first,second,third");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", "Parallel");
+    when(gitHubRestClient.isOrganizationMember(scribe, accessToken, "third", "octocat", Deadline.NONE)).thenReturn(true);
+
+    assertThat(await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE))).isTrue();
+  }
+
+  @Test
+  public void parallel_check_rejects_when_no_membership() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first,second,third");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", "Parallel");
+
+    assertThat(await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE))).isFalse();
+  }
+
+  @Test
+  public void parallel_check_ignores_failure_when_membership_is_confirmed() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first,second");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", "Parallel");
+    when(gitHubRestClient.isOrganizationMember(scribe, accessToken, "first", "octocat", Deadline.NONE)).thenThrow(new IllegalStateException("Fail to execute request"));
+    when(gitHubRestClient.isOrganizationMember(scribe, accessToken, "second", "octocat", Deadline.NONE)).thenReturn(true);
+
+    assertThat(await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE))).isTrue();
+  }
+
+  @Test
+  public void parallel_check_reports_failure_when_no_membership() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first,second");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", "Parallel");
+    when(gitHubRestClient.isOrganizationMember(scribe, accessToken, "first", "octocat", Deadline.NONE)).thenThrow(new IllegalStateException("Fail to execute request"));
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Fail to execute request");
+    await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE));
+  }
+
+  @Test
+  public void organizations_with_best_hit_rate_are_checked_first() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first,second,third");
+    when(gitHubRestClient.isOrganizationMember(any(OAuth20Service.class), any(OAuth2AccessToken.class), anyString(), anyString(), any(Deadline.class))).thenReturn(false);
+    when(gitHubRestClient.isOrganizationMember(any(OAuth20Service.class), any(OAuth2AccessToken.class), eq("third"), anyString(), any(Deadline.class))).thenReturn(true);
+
+    assertThat(underTest.orderByHitRate(gitHubSettings.organizations())).containsExactly("first", "second", "third");
+    await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE));
+
+    assertThat(underTest.orderByHitRate(gitHubSettings.organizations())).containsExactly("third", "first", "second");
+  }
+
+  @Test
+  public void fail_on_unsupported_strategy() throws Exception {
+    settings.setProperty("sonar.auth.github.organizations", "first");
+    settings.setProperty("sonar.auth.github.organizations.membershipStrategy", "Unknown");
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Organization membership strategy not supported : Unknown");
+    await(underTest.isMemberOfAny(gitHubSettings.configuration(), scribe, accessToken, "octocat", Deadline.NONE));
+  }
+}
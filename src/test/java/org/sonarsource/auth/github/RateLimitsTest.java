@@ -0,0 +1,93 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.model.Response;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import org.junit.Test;
+import org.sonar.api.utils.System2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RateLimitsTest {
+
+  private System2 system2 = mock(System2.class);
+  private RateLimits underTest = new RateLimits(system2);
+
+  @Test
+  public void rate_limit_is_low_when_remaining_requests_are_below_reserve() {
+    when(system2.now()).thenReturn(1_000_000L);
+    underTest.update("api.github.com", "token:a", response("10", "2000"));
+
+    assertThat(underTest.isLow("api.github.com", "token:a", 10)).isTrue();
+    assertThat(underTest.isLow("api.github.com", "token:a", 9)).isFalse();
+    assertThat(underTest.isLow("api.github.com", "token:a", 0)).as("disabled").isFalse();
+    assertThat(underTest.isLow("api.github.com", "token:b", 10)).as("other token").isFalse();
+    assertThat(underTest.isLow("github.company.com", "token:a", 10)).as("other host").isFalse();
+  }
+
+  @Test
+  public void rate_limit_is_not_low_once_reset() {
+    when(system2.now()).thenReturn(1_000_000L);
+    underTest.update("api.github.com", "token:a", response("0", "2000"));
+    assertThat(underTest.isLow("api.github.com", "token:a", 10)).isTrue();
+
+    when(system2.now()).thenReturn(2_000_000L);
+    assertThat(underTest.isLow("api.github.com", "token:a", 10)).isFalse();
+    assertThat(underTest.lowestRemaining()).isEqualTo(OptionalLong.empty());
+  }
+
+  @Test
+  public void lowest_remaining_requests() {
+    when(system2.now()).thenReturn(1_000_000L);
+    assertThat(underTest.lowestRemaining()).isEqualTo(OptionalLong.empty());
+
+    underTest.update("api.github.com", "token:a", response("4000", "2000"));
+    underTest.update("api.github.com", "token:b", response("120", "2000"));
+    underTest.update("api.github.com", "token:c", response("50", "999"));
+
+    assertThat(underTest.lowestRemaining()).isEqualTo(OptionalLong.of(120));
+  }
+
+  @Test
+  public void ignore_responses_without_rate_limit() {
+    underTest.update("api.github.com", "token:a", response(null, null));
+    underTest.update("api.github.com", "token:b", response("unlimited", "2000"));
+
+    assertThat(underTest.lowestRemaining()).isEqualTo(OptionalLong.empty());
+  }
+
+  private static Response response(String remaining, String reset) {
+    Map<String, String> headers = new HashMap<>();
+    if (remaining != null) {
+      headers.put("X-RateLimit-Remaining", remaining);
+      headers.put("X-RateLimit-Reset", reset);
+    }
+    Response response = mock(Response.class);
+    when(response.getHeaders()).thenReturn(headers);
+    when(response.getHeader("X-RateLimit-Remaining")).thenReturn(headers.get("X-RateLimit-Remaining"));
+    when(response.getHeader("X-RateLimit-Reset")).thenReturn(headers.get("X-RateLimit-Reset"));
+    return response;
+  }
+}
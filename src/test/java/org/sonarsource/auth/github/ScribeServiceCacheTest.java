@@ -0,0 +1,73 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import com.github.scribejava.core.oauth.OAuth20Service;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScribeServiceCacheTest {
+
+  private MapSettings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private GitHubSettings gitHubSettings = new GitHubSettings(settings);
+  private ScribeServiceCache underTest = new ScribeServiceCache(new ScribeGitHubApi(gitHubSettings), new GitHubHttpTransport(gitHubSettings));
+
+  @Test
+  public void reuse_service_built_for_same_settings() {
+    OAuth20Service service = underTest.get("id", "secret", "http://localhost/callback", "user:email");
+
+    assertThat(underTest.get("id", "secret", "http://localhost/callback", "user:email")).isSameAs(service);
+    assertThat(service.getConfig().getApiKey()).isEqualTo("id");
+    assertThat(service.getConfig().getApiSecret()).isEqualTo("secret");
+    assertThat(service.getConfig().getCallback()).isEqualTo("http://localhost/callback");
+    assertThat(service.getConfig().getScope()).isEqualTo("user:email");
+  }
+
+  @Test
+  public void build_new_service_when_settings_change() {
+    OAuth20Service service = underTest.get("id", "secret", "http://localhost/callback", "user:email");
+
+    assertThat(underTest.get("id", "new_secret", "http://localhost/callback", "user:email")).isNotSameAs(service);
+    assertThat(underTest.get("id", "secret", "http://localhost/callback", "user:email,read:org")).isNotSameAs(service);
+    assertThat(underTest.get("id", "secret", "http://localhost/callback", null)).isNotSameAs(service);
+    assertThat(underTest.size()).isEqualTo(4);
+  }
+
+  @Test
+  public void build_new_service_when_http_transport_changes() {
+    OAuth20Service service = underTest.get("id", "secret", "http://localhost/callback", null);
+
+    settings.setProperty("sonar.auth.github.http.transport", GitHubSettings.HTTP_TRANSPORT_POOLED);
+
+    assertThat(underTest.get("id", "secret", "http://localhost/callback", null)).isNotSameAs(service);
+  }
+
+  @Test
+  public void cache_is_bounded() {
+    for (int i = 0; i < 3 * ScribeServiceCache.MAX_SIZE; i++) {
+      underTest.get("id", "secret" + i, "http://localhost/callback", null);
+    }
+
+    assertThat(underTest.size()).isLessThanOrEqualTo(ScribeServiceCache.MAX_SIZE);
+  }
+}
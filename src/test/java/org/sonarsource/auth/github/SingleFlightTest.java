@@ -0,0 +1,118 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SingleFlightTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private GitHubExecutor executor = new GitHubExecutor();
+  private AtomicInteger calls = new AtomicInteger();
+  private SingleFlight underTest = new SingleFlight();
+
+  @After
+  public void tearDown() {
+    executor.stop();
+  }
+
+  @Test
+  public void concurrent_callers_share_the_same_call() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> first = executor.submit(() -> underTest.call("key", Deadline.NONE, () -> {
+      started.countDown();
+      release.await();
+      return "result-" + calls.incrementAndGet();
+    }));
+    started.await();
+
+    CompletableFuture<String> second = executor.submit(() -> underTest.call("key", Deadline.NONE, () -> "result-" + calls.incrementAndGet()));
+    Thread.sleep(50L);
+    assertThat(second.isDone()).isFalse();
+    release.countDown();
+
+    assertThat(GitHubExecutor.await(first)).isEqualTo("result-1");
+    assertThat(GitHubExecutor.await(second)).isEqualTo("result-1");
+    assertThat(calls.get()).isEqualTo(1);
+    assertThat(underTest.size()).isZero();
+  }
+
+  @Test
+  public void calls_are_not_shared_once_completed() throws Exception {
+    assertThat(underTest.call("key", Deadline.NONE, () -> calls.incrementAndGet())).isEqualTo(1);
+    assertThat(underTest.call("key", Deadline.NONE, () -> calls.incrementAndGet())).isEqualTo(2);
+    assertThat(underTest.call("other", Deadline.NONE, () -> calls.incrementAndGet())).isEqualTo(3);
+  }
+
+  @Test
+  public void failure_is_shared_with_concurrent_callers() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> first = executor.submit(() -> underTest.call("key", Deadline.NONE, () -> {
+      started.countDown();
+      release.await();
+      throw new IOException("Connection reset");
+    }));
+    started.await();
+    CompletableFuture<String> second = executor.submit(() -> underTest.call("key", Deadline.NONE, () -> "not called"));
+    Thread.sleep(50L);
+    release.countDown();
+
+    try {
+      GitHubExecutor.await(first);
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Connection reset");
+    }
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Connection reset");
+    GitHubExecutor.await(second);
+  }
+
+  @Test
+  public void call_again_when_first_caller_gives_up() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> first = executor.submit(() -> underTest.call("key", Deadline.NONE, () -> {
+      started.countDown();
+      release.await();
+      throw new Deadline.ExceededException("GitHub did not answer within 10 ms, please retry later");
+    }));
+    started.await();
+    CompletableFuture<String> second = executor.submit(() -> underTest.call("key", Deadline.NONE, () -> "result"));
+    Thread.sleep(50L);
+    release.countDown();
+
+    assertThat(GitHubExecutor.await(second)).isEqualTo("result");
+    thrown.expect(Deadline.ExceededException.class);
+    GitHubExecutor.await(first);
+  }
+}
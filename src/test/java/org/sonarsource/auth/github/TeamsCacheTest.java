@@ -0,0 +1,109 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.sonarsource.auth.github.GitHubExecutor.await;
+
+public class TeamsCacheTest {
+
+  private Settings settings = new MapSettings(new PropertyDefinitions(GitHubSettings.definitions()));
+  private System2 system2 = mock(System2.class);
+  private GitHubExecutor executor = new GitHubExecutor();
+  private AtomicInteger fetches = new AtomicInteger();
+
+  private TeamsCache underTest = new TeamsCache(new GitHubSettings(settings), system2);
+
+  @After
+  public void tearDown() {
+    executor.stop();
+  }
+
+  @Test
+  public void fetch_teams_at_each_login_by_default() throws Exception {
+    assertThat(await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch())))).extracting(GsonTeams.GsonTeam::getId).containsOnly("team-1");
+    assertThat(await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch())))).extracting(GsonTeams.GsonTeam::getId).containsOnly("team-2");
+  }
+
+  @Test
+  public void return_cached_teams_and_refresh_them_in_background() throws Exception {
+    settings.setProperty("sonar.auth.github.groupsSync.cache.maxAge", 3600);
+    when(system2.now()).thenReturn(1_000_000L);
+    assertThat(await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch())))).extracting(GsonTeams.GsonTeam::getId).containsOnly("team-1");
+
+    CountDownLatch refreshing = new CountDownLatch(1);
+    CompletableFuture<List<GsonTeams.GsonTeam>> teams = underTest.get("OctoCat", Deadline.NONE, d -> executor.submit(() -> {
+      refreshing.await();
+      return fetch();
+    }));
+    assertThat(teams.isDone()).isTrue();
+    assertThat(await(teams)).extracting(GsonTeams.GsonTeam::getId).containsOnly("team-1");
+    refreshing.countDown();
+
+    // the refreshed teams are returned once the background request is completed
+    String id = "team-1";
+    for (int i = 0; i < 500 && id.equals("team-1"); i++) {
+      Thread.sleep(10);
+      id = await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch()))).get(0).getId();
+    }
+    assertThat(id).isNotEqualTo("team-1");
+  }
+
+  @Test
+  public void fetch_teams_older_than_max_age() throws Exception {
+    settings.setProperty("sonar.auth.github.groupsSync.cache.maxAge", 60);
+    when(system2.now()).thenReturn(1_000_000L);
+    await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch())));
+
+    when(system2.now()).thenReturn(1_060_000L);
+    assertThat(await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch())))).extracting(GsonTeams.GsonTeam::getId).containsOnly("team-2");
+    assertThat(fetches.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void evict_teams_of_user() throws Exception {
+    settings.setProperty("sonar.auth.github.groupsSync.cache.maxAge", 3600);
+    when(system2.now()).thenReturn(1_000_000L);
+    await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch())));
+
+    underTest.evict("octocat");
+
+    assertThat(await(underTest.get("octocat", Deadline.NONE, d -> completedFuture(fetch())))).extracting(GsonTeams.GsonTeam::getId).containsOnly("team-2");
+  }
+
+  private List<GsonTeams.GsonTeam> fetch() {
+    return singletonList(new GsonTeams.GsonTeam("team-" + fetches.incrementAndGet(), new GsonTeams.GsonOrganization("SonarSource")));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * GitHub Authentication for SonarQube
+ * Copyright (C) 2016-2021 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.auth.github;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UrlTemplateTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private UrlTemplate membership = UrlTemplate.compile("https://api.github.com/", "orgs/{org}/members/{username}");
+
+  @Test
+  public void expand_values() {
+    assertThat(membership.expand("SonarSource", "octo-cat_1.0~")).isEqualTo("https://api.github.com/orgs/SonarSource/members/octo-cat_1.0~");
+    assertThat(membership.template()).isEqualTo("orgs/{org}/members/{username}");
+    assertThat(membership.variables()).isEqualTo(2);
+  }
+
+  @Test
+  public void percent_encode_values_as_path_segments() {
+    assertThat(membership.expand("a/b c", "x?y#z%")).isEqualTo("https://api.github.com/orgs/a%2Fb%20c/members/x%3Fy%23z%25");
+    assertThat(membership.expand("été", "octocat")).isEqualTo("https://api.github.com/orgs/%C3%A9%74%C3%A9/members/octocat");
+  }
+
+  @Test
+  public void expand_template_with_trailing_variable() {
+    UrlTemplate user = UrlTemplate.compile("https://github.company.com/api/v3/", "users/{username}");
+
+    assertThat(user.expand("octocat")).isEqualTo("https://github.company.com/api/v3/users/octocat");
+  }
+
+  @Test
+  public void fail_if_number_of_values_does_not_match() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("URL template orgs/{org}/members/{username} expects 2 values, got 1");
+
+    membership.expand("SonarSource");
+  }
+
+  @Test
+  public void fail_if_placeholder_is_not_closed() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Unclosed placeholder in URL template: orgs/{org");
+
+    UrlTemplate.compile("https://api.github.com/", "orgs/{org");
+  }
+}